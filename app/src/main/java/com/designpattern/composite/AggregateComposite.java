@@ -0,0 +1,273 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * 缓存子树聚合值的组合树：子树的节点个数、树叶值的和、子树的层数。
+ * <p>
+ * 普通的 Composite 每次统计都要完整遍历一遍子树。这里每个树枝节点缓存自己子树的聚合值，修改时沿着父节点向上更新：
+ * 1。节点个数和树叶值的和可以相加减，add/remove 或者修改树叶的值时，把变化量（delta）加到从父节点到根的每个节点上，代价是 O(depth)，和子节点个数无关。
+ * 2。层数是子节点层数的最大值，不能用差值更新。树枝节点记录子节点层数的最大值和取到最大值的子节点个数，
+ * 一个子节点的层数变化时只更新这一个子节点对应的计数；只有唯一取到最大值的子节点变小（或者被删除）时，才重新扫描一次子节点。
+ * 层数不再变化的祖先不用继续向上更新。
+ * 3。查询直接返回缓存，O(1)。
+ * <p>
+ * 子节点只能是 AggregateComposite 的 Leaf 或 Branch，一个节点只能有一个父节点。该类不是线程安全的。
+ */
+public abstract class AggregateComposite implements CompositePattern.Component {
+
+    private static final String TAG = "AggregateComposite";
+
+    final String name;
+    Branch parent;
+
+    AggregateComposite(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Branch getParent() {
+        return parent;
+    }
+
+    /**
+     * 子树的节点个数，包括自己
+     */
+    public abstract int size();
+
+    /**
+     * 子树里所有树叶的值的和
+     */
+    public abstract long leafSum();
+
+    /**
+     * 子树的层数，树叶是 1
+     */
+    public abstract int maxDepth();
+
+    /**
+     * 一个子节点的子树变化后，从它的父节点 branch 开始向上更新
+     * @param sizeDelta 节点个数的变化量
+     * @param sumDelta  树叶值的和的变化量
+     * @param oldDepth  子节点原来的层数，0 表示原来不是子节点
+     * @param newDepth  子节点现在的层数，0 表示已经不是子节点
+     */
+    static void childChanged(Branch branch, int sizeDelta, long sumDelta, int oldDepth, int newDepth) {
+        while (branch != null) {
+            branch.size += sizeDelta;
+            branch.leafSum += sumDelta;
+            int before = branch.maxDepth;
+            if (oldDepth != newDepth) {
+                branch.childDepthChanged(oldDepth, newDepth);
+            }
+            oldDepth = before;
+            newDepth = branch.maxDepth;
+            if (sizeDelta == 0 && sumDelta == 0 && oldDepth == newDepth) {
+                return;
+            }
+            branch = branch.parent;
+        }
+    }
+
+    /**
+     * 树叶：带一个值
+     */
+    public static class Leaf extends AggregateComposite {
+
+        private long value;
+
+        public Leaf(String name, long value) {
+            super(name);
+            this.value = value;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public void setValue(long value) {
+            if (this.value != value) {
+                long delta = value - this.value;
+                this.value = value;
+                childChanged(parent, 0, delta, 1, 1);
+            }
+        }
+
+        @Override
+        public void add(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public void remove(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public CompositePattern.Component getChild(int i) {
+            return null;
+        }
+
+        @Override
+        public int getChildCount() {
+            return 0;
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public long leafSum() {
+            return value;
+        }
+
+        @Override
+        public int maxDepth() {
+            return 1;
+        }
+
+        @Override
+        public void operation() {
+            Log.d(TAG, "operation name = " + name + " , value = " + value);
+        }
+    }
+
+    /**
+     * 树枝：缓存子树的聚合值
+     */
+    public static class Branch extends AggregateComposite {
+
+        private final ArrayList<AggregateComposite> components = new ArrayList<>();
+        private int size = 1;
+        private long leafSum;
+        private int maxDepth = 1;
+        /**
+         * 子节点层数的最大值，没有子节点时是 0
+         */
+        private int childMaxDepth;
+        /**
+         * 层数等于 childMaxDepth 的子节点个数
+         */
+        private int childMaxCount;
+
+        public Branch(String name) {
+            super(name);
+        }
+
+        /**
+         * @throws IllegalArgumentException c 不是 AggregateComposite
+         * @throws IllegalStateException    c 已经有父节点，或者 c 是自己的祖先
+         */
+        @Override
+        public void add(CompositePattern.Component c) {
+            if (!(c instanceof AggregateComposite)) {
+                throw new IllegalArgumentException("Unsupported component " + c);
+            }
+            AggregateComposite child = (AggregateComposite) c;
+            if (child.parent != null) {
+                throw new IllegalStateException(child.name + " already has a parent " + child.parent.name);
+            }
+            // child 没有父节点，只有它是这棵树的根时才会成环；没有子节点的 child 不可能是祖先，不用向上查找
+            if (child == this || child.getChildCount() > 0 && isAncestor(child)) {
+                throw new IllegalStateException("Cannot add an ancestor " + child.name + " as a child");
+            }
+            components.add(child);
+            child.parent = this;
+            childChanged(this, child.size(), child.leafSum(), 0, child.maxDepth());
+        }
+
+        private boolean isAncestor(AggregateComposite node) {
+            for (Branch ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                if (ancestor == node) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void remove(CompositePattern.Component c) {
+            if (c instanceof AggregateComposite && ((AggregateComposite) c).parent == this && components.remove(c)) {
+                AggregateComposite child = (AggregateComposite) c;
+                child.parent = null;
+                childChanged(this, -child.size(), -child.leafSum(), child.maxDepth(), 0);
+            }
+        }
+
+        @Override
+        public AggregateComposite getChild(int i) {
+            return components.get(i);
+        }
+
+        @Override
+        public int getChildCount() {
+            return components.size();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long leafSum() {
+            return leafSum;
+        }
+
+        @Override
+        public int maxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * 一个子节点的层数从 oldDepth 变成 newDepth，只更新这个子节点对应的计数
+         */
+        private void childDepthChanged(int oldDepth, int newDepth) {
+            if (oldDepth > 0 && oldDepth == childMaxDepth && childMaxCount == 1 && newDepth < oldDepth) {
+                // 唯一取到最大值的子节点变小了，重新扫描子节点；这时 components 里已经是变化之后的状态
+                childMaxDepth = 0;
+                childMaxCount = 0;
+                for (int i = 0; i < components.size(); i++) {
+                    int depth = components.get(i).maxDepth();
+                    if (depth > childMaxDepth) {
+                        childMaxDepth = depth;
+                        childMaxCount = 1;
+                    } else if (depth == childMaxDepth) {
+                        childMaxCount++;
+                    }
+                }
+            } else {
+                if (oldDepth > 0 && oldDepth == childMaxDepth) {
+                    childMaxCount--;
+                }
+                if (newDepth > childMaxDepth) {
+                    childMaxDepth = newDepth;
+                    childMaxCount = 1;
+                } else if (newDepth > 0 && newDepth == childMaxDepth) {
+                    childMaxCount++;
+                }
+            }
+            maxDepth = childMaxDepth + 1;
+        }
+
+        @Override
+        public void operation() {
+            TreeCursor.PreOrder<CompositePattern.Component> cursor =
+                    new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT).reset(this);
+            for (CompositePattern.Component node = cursor.next(); node != null; node = cursor.next()) {
+                if (node instanceof Branch) {
+                    Log.d(TAG, "operation name = " + ((Branch) node).name);
+                } else {
+                    node.operation();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package com.designpattern.composite;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 两棵组合树的结构差异：生成插入、删除、移动、改名的操作列表，并且可以原地应用到旧树上。
+ * <p>
+ * 逐个节点比较两棵大树是平方级的。这里自底向上计算每棵子树的哈希（Merkle 树）：
+ * 1。内容哈希：树叶由它的内容（名字）计算，树枝由所有子节点的完整哈希按顺序合并；完整哈希再合并上节点自己的名字。
+ * 2。两个树枝的内容哈希相同时整棵子树相同，直接跳过，所以比较的代价和变化的区域成正比。
+ * 3。树枝的内容哈希按对象缓存（弱引用），新版本和旧版本共享的子树对象、上一次比较过的子树都不用重新计算。
+ * 树被 Patch.apply 以外的方式修改后（CompositePattern.modCount 变化），缓存自动清空；Patch.apply 只清除变化的路径。
+ * <p>
+ * 同一个父节点下的子节点按名字和类型匹配：
+ * 1。没有匹配上、但内容哈希相同的一对树枝是改名（UPDATE）；名字不同的树叶内容也不同，是删除和插入。
+ * 2。匹配上的子节点保留最长的有序子序列，其余的是移动（MOVE）。
+ * 3。剩下的旧子节点是删除，新子节点是插入；完整哈希相同的一对删除和插入合并成跨父节点的移动。
+ * <p>
+ * 只支持 Composite 和 Leaf，而且需要由构造时传入的 CompositePattern 创建，其他实例创建的节点被修改时检测不到。
+ */
+public class CompositeDiff {
+
+    private static final long LEAF_SEED = 0x1F3D5B79A2C4E6F8L;
+    private static final long COMPOSITE_SEED = 0x7A3C5E9F1B2D4E6AL;
+
+    private final CompositePattern pattern;
+    private final WeakHashMap<CompositePattern.Component, Long> contentHashes = new WeakHashMap<>();
+    /**
+     * contentHashes 对应的 pattern.modCount
+     */
+    private int modCount;
+
+    /**
+     * @param pattern 插入时复制新树的子树，需要外部类的实例创建节点
+     */
+    public CompositeDiff(CompositePattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * 一个修改操作，引用的都是旧树里的节点（插入的是新树里的子树）
+     */
+    public static class Op {
+
+        public enum Type {
+            INSERT, DELETE, MOVE, UPDATE
+        }
+
+        private final Type type;
+        private final String path;
+        private CompositePattern.Composite from;
+        private CompositePattern.Composite to;
+        private CompositePattern.Component node;
+        private int index = -1;
+        private String name;
+
+        Op(Type type, String path) {
+            this.type = type;
+            this.path = path;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * 父节点在旧树里的路径
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 删除、移动：原来的父节点
+         */
+        public CompositePattern.Composite getFrom() {
+            return from;
+        }
+
+        /**
+         * 插入、移动：新的父节点
+         */
+        public CompositePattern.Composite getTo() {
+            return to;
+        }
+
+        /**
+         * 插入：新树里的子树；其他：旧树里的节点
+         */
+        public CompositePattern.Component getNode() {
+            return node;
+        }
+
+        /**
+         * 插入、移动：在新的父节点里的位置
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * 改名：新的名字
+         */
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case INSERT:
+                    return "INSERT " + nameOf(node) + " into " + path + " at " + index;
+                case DELETE:
+                    return "DELETE " + nameOf(node) + " from " + path;
+                case MOVE:
+                    return "MOVE " + nameOf(node) + " from " + path + " to " + nameOf(to) + " at " + index;
+                default:
+                    return "UPDATE " + nameOf(node) + " in " + path + " to " + name;
+            }
+        }
+    }
+
+    /**
+     * 比较的结果
+     */
+    public class Patch {
+
+        private final List<Op> ops;
+        private final IdentityHashMap<CompositePattern.Component, CompositePattern.Component> parents;
+        private final int expectedModCount;
+        private boolean applied;
+
+        Patch(List<Op> ops, IdentityHashMap<CompositePattern.Component, CompositePattern.Component> parents,
+              int expectedModCount) {
+            this.ops = Collections.unmodifiableList(ops);
+            this.parents = parents;
+            this.expectedModCount = expectedModCount;
+        }
+
+        public List<Op> getOps() {
+            return ops;
+        }
+
+        public boolean isEmpty() {
+            return ops.isEmpty();
+        }
+
+        /**
+         * 原地修改旧树，使它和新树一样。先改名，再执行所有删除和移出（每个父节点一次），最后按位置从小到大插入和移入。
+         * 插入的子树是新树的副本。只能应用一次。
+         * @throws IllegalStateException 已经应用过，或者比较之后树被修改过
+         */
+        public void apply() {
+            if (applied) {
+                throw new IllegalStateException("Patch already applied");
+            }
+            if (pattern.modCount != expectedModCount) {
+                throw new IllegalStateException("Trees were modified after diff");
+            }
+            applied = true;
+            validateCache();
+            IdentityHashMap<CompositePattern.Composite, Set<CompositePattern.Component>> removed =
+                    new IdentityHashMap<>();
+            for (Op op : ops) {
+                if (op.type == Op.Type.UPDATE) {
+                    rename(op.node, op.name);
+                    invalidateParents(op.node);
+                } else if (op.type == Op.Type.DELETE || op.type == Op.Type.MOVE) {
+                    Set<CompositePattern.Component> nodes = removed.get(op.from);
+                    if (nodes == null) {
+                        nodes = Collections.newSetFromMap(
+                                new IdentityHashMap<CompositePattern.Component, Boolean>());
+                        removed.put(op.from, nodes);
+                    }
+                    nodes.add(op.node);
+                }
+            }
+            for (Map.Entry<CompositePattern.Composite, Set<CompositePattern.Component>> entry : removed.entrySet()) {
+                entry.getKey().removeAll(entry.getValue());
+                invalidate(entry.getKey());
+            }
+            for (Op op : ops) {
+                if (op.type == Op.Type.INSERT) {
+                    op.to.add(op.index, copy(op.node));
+                    invalidate(op.to);
+                } else if (op.type == Op.Type.MOVE) {
+                    op.to.add(op.index, op.node);
+                    invalidate(op.to);
+                }
+            }
+            // 上面的修改都已经清除了对应的缓存，其余的缓存仍然有效
+            modCount = pattern.modCount;
+        }
+
+        private void invalidateParents(CompositePattern.Component node) {
+            for (CompositePattern.Component parent = parents.get(node); parent != null; parent = parents.get(parent)) {
+                contentHashes.remove(parent);
+            }
+        }
+
+        private void invalidate(CompositePattern.Component node) {
+            contentHashes.remove(node);
+            invalidateParents(node);
+        }
+    }
+
+    /**
+     * 删除的候选，用来和插入合并成移动
+     */
+    private static class Removal {
+        final Op op;
+        boolean moved;
+
+        Removal(Op op) {
+            this.op = op;
+        }
+    }
+
+    /**
+     * 比较两棵树
+     * @throws IllegalArgumentException 两个根节点的类型不同，或者有不支持的构件
+     */
+    public Patch diff(CompositePattern.Component oldRoot, CompositePattern.Component newRoot) {
+        if ((oldRoot instanceof CompositePattern.Composite) != (newRoot instanceof CompositePattern.Composite)) {
+            throw new IllegalArgumentException("Root kinds differ");
+        }
+        ArrayList<Op> updates = new ArrayList<>();
+        ArrayList<Removal> removals = new ArrayList<>();
+        ArrayList<Op> attaches = new ArrayList<>();
+        IdentityHashMap<CompositePattern.Component, CompositePattern.Component> parents = new IdentityHashMap<>();
+        validateCache();
+
+        if (!nameOf(oldRoot).equals(nameOf(newRoot))) {
+            Op op = new Op(Op.Type.UPDATE, "");
+            op.node = oldRoot;
+            op.name = nameOf(newRoot);
+            updates.add(op);
+        }
+
+        ArrayList<Object> work = new ArrayList<>();
+        if (oldRoot instanceof CompositePattern.Composite) {
+            work.add(oldRoot);
+            work.add(newRoot);
+            work.add(nameOf(oldRoot));
+        }
+        while (!work.isEmpty()) {
+            String path = (String) work.remove(work.size() - 1);
+            CompositePattern.Composite newParent = (CompositePattern.Composite) work.remove(work.size() - 1);
+            CompositePattern.Composite oldParent = (CompositePattern.Composite) work.remove(work.size() - 1);
+            if (oldParent == newParent || contentHash(oldParent) == contentHash(newParent)) {
+                continue;
+            }
+            diffChildren(oldParent, newParent, path, updates, removals, attaches, parents, work);
+        }
+
+        // 完整哈希相同的删除和插入合并成移动
+        HashMap<Long, ArrayDeque<Removal>> removalsByHash = new HashMap<>();
+        for (Removal removal : removals) {
+            Long hash = hash(removal.op.node);
+            ArrayDeque<Removal> candidates = removalsByHash.get(hash);
+            if (candidates == null) {
+                candidates = new ArrayDeque<>();
+                removalsByHash.put(hash, candidates);
+            }
+            candidates.add(removal);
+        }
+        for (int i = 0; i < attaches.size(); i++) {
+            Op insert = attaches.get(i);
+            if (insert.type != Op.Type.INSERT || removalsByHash.isEmpty()) {
+                continue;
+            }
+            ArrayDeque<Removal> candidates = removalsByHash.get(hash(insert.node));
+            if (candidates == null) {
+                continue;
+            }
+            Removal removal = candidates.poll();
+            if (candidates.isEmpty()) {
+                removalsByHash.remove(hash(insert.node));
+            }
+            removal.moved = true;
+            Op move = new Op(Op.Type.MOVE, removal.op.path);
+            move.from = removal.op.from;
+            move.node = removal.op.node;
+            move.to = insert.to;
+            move.index = insert.index;
+            attaches.set(i, move);
+        }
+
+        ArrayList<Op> ops = new ArrayList<>(updates.size() + removals.size() + attaches.size());
+        ops.addAll(updates);
+        for (Removal removal : removals) {
+            if (!removal.moved) {
+                ops.add(removal.op);
+            }
+        }
+        ops.addAll(attaches);
+        return new Patch(ops, parents, pattern.modCount);
+    }
+
+    private void diffChildren(CompositePattern.Composite oldParent, CompositePattern.Composite newParent, String path,
+                              ArrayList<Op> updates, ArrayList<Removal> removals, ArrayList<Op> attaches,
+                              IdentityHashMap<CompositePattern.Component, CompositePattern.Component> parents,
+                              ArrayList<Object> work) {
+        int oldCount = oldParent.getChildCount();
+        int newCount = newParent.getChildCount();
+
+        // 按名字和类型匹配，同名的按顺序匹配
+        HashMap<String, ArrayDeque<Integer>> oldByName = new HashMap<>();
+        for (int i = 0; i < oldCount; i++) {
+            String key = keyOf(oldParent.getChild(i));
+            ArrayDeque<Integer> indexes = oldByName.get(key);
+            if (indexes == null) {
+                indexes = new ArrayDeque<>();
+                oldByName.put(key, indexes);
+            }
+            indexes.add(i);
+        }
+        int[] newToOld = new int[newCount];
+        boolean[] oldMatched = new boolean[oldCount];
+        for (int j = 0; j < newCount; j++) {
+            ArrayDeque<Integer> indexes = oldByName.get(keyOf(newParent.getChild(j)));
+            Integer i = indexes == null ? null : indexes.poll();
+            newToOld[j] = i == null ? -1 : i;
+            if (i != null) {
+                oldMatched[i] = true;
+            }
+        }
+
+        // 没有匹配上、内容相同的是改名
+        HashMap<Long, ArrayDeque<Integer>> unmatchedByContent = null;
+        for (int i = 0; i < oldCount; i++) {
+            if (!oldMatched[i]) {
+                if (unmatchedByContent == null) {
+                    unmatchedByContent = new HashMap<>();
+                }
+                Long content = contentHash(oldParent.getChild(i));
+                ArrayDeque<Integer> indexes = unmatchedByContent.get(content);
+                if (indexes == null) {
+                    indexes = new ArrayDeque<>();
+                    unmatchedByContent.put(content, indexes);
+                }
+                indexes.add(i);
+            }
+        }
+        if (unmatchedByContent != null) {
+            for (int j = 0; j < newCount; j++) {
+                if (newToOld[j] != -1) {
+                    continue;
+                }
+                CompositePattern.Component newChild = newParent.getChild(j);
+                ArrayDeque<Integer> indexes = unmatchedByContent.get(contentHash(newChild));
+                Integer i = indexes == null ? null : indexes.poll();
+                if (i != null) {
+                    newToOld[j] = i;
+                    oldMatched[i] = true;
+                    CompositePattern.Component oldChild = oldParent.getChild(i);
+                    Op op = new Op(Op.Type.UPDATE, path);
+                    op.node = oldChild;
+                    op.name = nameOf(newChild);
+                    updates.add(op);
+                    parents.put(oldChild, oldParent);
+                }
+            }
+        }
+
+        boolean[] keep = longestIncreasing(newToOld);
+        for (int j = 0; j < newCount; j++) {
+            int i = newToOld[j];
+            CompositePattern.Component newChild = newParent.getChild(j);
+            if (i == -1) {
+                Op op = new Op(Op.Type.INSERT, path);
+                op.to = oldParent;
+                op.node = newChild;
+                op.index = j;
+                attaches.add(op);
+                continue;
+            }
+            CompositePattern.Component oldChild = oldParent.getChild(i);
+            if (!keep[j]) {
+                Op op = new Op(Op.Type.MOVE, path);
+                op.from = oldParent;
+                op.to = oldParent;
+                op.node = oldChild;
+                op.index = j;
+                attaches.add(op);
+            }
+            if (oldChild instanceof CompositePattern.Composite && oldChild != newChild
+                    && contentHash(oldChild) != contentHash(newChild)) {
+                parents.put(oldChild, oldParent);
+                work.add(oldChild);
+                work.add(newChild);
+                work.add(path + "/" + nameOf(oldChild));
+            }
+        }
+        for (int i = 0; i < oldCount; i++) {
+            if (!oldMatched[i]) {
+                Op op = new Op(Op.Type.DELETE, path);
+                op.from = oldParent;
+                op.node = oldParent.getChild(i);
+                removals.add(new Removal(op));
+            }
+        }
+    }
+
+    /**
+     * 匹配上的子节点按旧位置的最长递增子序列，这些节点不用移动
+     * @return 新位置 -> 是否保留
+     */
+    private static boolean[] longestIncreasing(int[] newToOld) {
+        int n = newToOld.length;
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int j = 0; j < n; j++) {
+            int value = newToOld[j];
+            if (value == -1) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (newToOld[tails[mid]] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[j] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = j;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] keep = new boolean[n];
+        for (int j = length > 0 ? tails[length - 1] : -1; j != -1; j = previous[j]) {
+            keep[j] = true;
+        }
+        return keep;
+    }
+
+    /**
+     * 子树的完整哈希：名字和内容
+     */
+    public long hash(CompositePattern.Component node) {
+        return mix(nameHash(nameOf(node)), contentHash(node));
+    }
+
+    /**
+     * 树在上次计算之后被修改过（不是通过 Patch.apply），缓存的哈希可能已经过期，全部清除
+     */
+    private void validateCache() {
+        if (modCount != pattern.modCount) {
+            contentHashes.clear();
+            modCount = pattern.modCount;
+        }
+    }
+
+    /**
+     * 后序计算内容哈希，已经缓存的子树直接跳过，不递归
+     */
+    long contentHash(CompositePattern.Component root) {
+        if (!(root instanceof CompositePattern.Composite)) {
+            return leafHash(root);
+        }
+        validateCache();
+        Long cached = contentHashes.get(root);
+        if (cached != null) {
+            return cached;
+        }
+        Object[] stack = new Object[16];
+        int[] next = new int[16];
+        int top = 0;
+        stack[top] = root;
+        next[top++] = 0;
+        while (top > 0) {
+            CompositePattern.Composite node = (CompositePattern.Composite) stack[top - 1];
+            int index = next[top - 1];
+            if (index < node.getChildCount()) {
+                next[top - 1] = index + 1;
+                CompositePattern.Component child = node.getChild(index);
+                if (child instanceof CompositePattern.Composite && !contentHashes.containsKey(child)) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                    }
+                    stack[top] = child;
+                    next[top++] = 0;
+                }
+                continue;
+            }
+            long hash = COMPOSITE_SEED;
+            for (int i = 0; i < node.getChildCount(); i++) {
+                CompositePattern.Component child = node.getChild(i);
+                long content = child instanceof CompositePattern.Composite ? contentHashes.get(child) : leafHash(child);
+                hash = mix(hash, mix(nameHash(nameOf(child)), content));
+            }
+            contentHashes.put(node, hash);
+            stack[--top] = null;
+        }
+        return contentHashes.get(root);
+    }
+
+    /**
+     * 复制新树的子树，插入后两棵树互不影响
+     */
+    private CompositePattern.Component copy(CompositePattern.Component root) {
+        if (!(root instanceof CompositePattern.Composite)) {
+            return pattern.new Leaf(nameOf(root));
+        }
+        CompositePattern.Composite rootCopy = pattern.new Composite(nameOf(root), root.getChildCount());
+        ArrayList<CompositePattern.Component> stack = new ArrayList<>();
+        stack.add(root);
+        stack.add(rootCopy);
+        while (!stack.isEmpty()) {
+            CompositePattern.Component target = stack.remove(stack.size() - 1);
+            CompositePattern.Component source = stack.remove(stack.size() - 1);
+            for (int i = 0; i < source.getChildCount(); i++) {
+                CompositePattern.Component child = source.getChild(i);
+                if (child instanceof CompositePattern.Composite) {
+                    CompositePattern.Composite childCopy = pattern.new Composite(nameOf(child), child.getChildCount());
+                    target.add(childCopy);
+                    stack.add(child);
+                    stack.add(childCopy);
+                } else {
+                    target.add(pattern.new Leaf(nameOf(child)));
+                }
+            }
+        }
+        return rootCopy;
+    }
+
+    private static void rename(CompositePattern.Component node, String name) {
+        if (node instanceof CompositePattern.Composite) {
+            ((CompositePattern.Composite) node).setName(name);
+        } else {
+            ((CompositePattern.Leaf) node).setName(name);
+        }
+    }
+
+    /**
+     * 树叶的内容哈希：树叶的内容只有名字
+     */
+    private static long leafHash(CompositePattern.Component leaf) {
+        return mix(LEAF_SEED, nameHash(nameOf(leaf)));
+    }
+
+    private static String keyOf(CompositePattern.Component node) {
+        return (node instanceof CompositePattern.Composite ? "C" : "L") + nameOf(node);
+    }
+
+    static String nameOf(CompositePattern.Component node) {
+        if (node instanceof CompositePattern.Composite) {
+            return ((CompositePattern.Composite) node).getName();
+        }
+        if (node instanceof CompositePattern.Leaf) {
+            return ((CompositePattern.Leaf) node).getName();
+        }
+        throw new IllegalArgumentException("Unsupported component " + node.getClass().getName());
+    }
+
+    private static long nameHash(String name) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        hash = (Long.rotateLeft(hash, 23) ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+}
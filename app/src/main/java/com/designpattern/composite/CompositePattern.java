@@ -1,8 +1,36 @@
 package com.designpattern.composite;
 
+import android.os.Build;
+import android.support.annotation.RequiresApi;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 组合模式：又叫作部分-整体模式，它是一种将对象组合成树状的层次结构的模式，用来表示“部分-整体”的关系，使用户对单个对象和组合对象具有一致的访问性。
@@ -26,11 +54,35 @@ import java.util.ArrayList;
  * (2) 安全方式：在该方式中，将管理子构件的方法移到树枝构件中，抽象构件和树叶构件没有对子对象的管理方法，
  * 这样就避免了上一种方式的安全性问题，但由于叶子和分支有不同的接口，客户端在调用时要知道树叶对象和树枝对象的存在，所以失去了透明性。
  *
+ * 节点很多、每个节点的工作又是 CPU 密集时，可以使用 ParallelTraversal 并行遍历。
+ * 需要先序、后序或层序遍历时使用 TreeCursor，不递归，遍历时不分配对象。
+ * 节点非常多时可以转换成 FlatTree，用几个数组保存整棵树。
+ * 经常统计子树的节点个数、树叶值的和等聚合值时使用 AggregateComposite，修改后只重新计算变化的路径。
+ * 需要按名字、路径查找节点，或者频繁删除子节点时使用 IndexedComposite。
+ * 从文件读取很大的层次数据时使用 CompositeStream，可以边读边处理，不生成整棵树。
+ * 对应外部的层次结构（例如目录树）、大部分子树不会访问时使用 LazyComposite，按需加载子节点。
+ * 比较两个版本的树、只同步变化的部分时使用 CompositeDiff。
+ * Composite 和 CompositeSecurity 可以通过 stream()/parallelStream() 查询节点（API 24）。
+ * 多个线程同时读、一个线程修改时使用 ConcurrentComposite，读不加锁。
+ *
  */
 public class CompositePattern {
 
     private String TAG = "CompositePattern";
 
+    /**
+     * Composite/CompositeSecurity 的 operation() 复用的游标。
+     * 同时有多个遍历时（多个线程，或者子类的 operation() 里又遍历了另一棵子树），拿不到游标的遍历临时创建一个。
+     */
+    private final AtomicReference<TreeCursor.PreOrder<Component>> operationCursor = new AtomicReference<>();
+    private final AtomicReference<TreeCursor.PreOrder<ComponentSecurity>> operationSecurityCursor =
+            new AtomicReference<>();
+
+    /**
+     * 这个实例创建的 Leaf/Composite 被修改（增删子节点、改名）的次数，CompositeDiff 用它判断缓存的哈希是否过期
+     */
+    int modCount;
+
     /**
      * 抽象构建
      */
@@ -38,6 +90,7 @@ public class CompositePattern {
         void add(Component c);
         void remove(Component c);
         Component getChild(int i);
+        int getChildCount();
         void operation();
     }
 
@@ -53,6 +106,15 @@ public class CompositePattern {
             this.name = name;
         }
 
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+            modCount++;
+        }
+
         @Override
         public void add(Component c) {
 
@@ -68,6 +130,11 @@ public class CompositePattern {
             return null;
         }
 
+        @Override
+        public int getChildCount() {
+            return 0;
+        }
+
         @Override
         public void operation() {
             Log.d(TAG , "operation name = "+name);
@@ -87,14 +154,50 @@ public class CompositePattern {
             components = new ArrayList<>();
         }
 
+        /**
+         * 子节点个数已知时按实际大小分配，例如 CompositeStream.TreeBuilder
+         */
+        public Composite(String name, int initialCapacity){
+            this.name = name ;
+            components = new ArrayList<>(initialCapacity);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+            modCount++;
+        }
+
         @Override
         public void add(Component c) {
             components.add(c);
+            modCount++;
+        }
+
+        /**
+         * 插入到指定位置，例如 CompositeDiff 应用修改时
+         */
+        public void add(int index, Component c) {
+            components.add(index, c);
+            modCount++;
         }
 
         @Override
         public void remove(Component c) {
-            components.add(c);
+            components.remove(c);
+            modCount++;
+        }
+
+        /**
+         * 删除 c 里的所有子节点，只遍历一次子节点列表，例如 CompositeDiff 应用修改时。
+         * c 最好是按对象比较、contains 为 O(1) 的集合
+         */
+        public void removeAll(Collection<? extends Component> c) {
+            components.removeAll(c);
+            modCount++;
         }
 
         @Override
@@ -102,14 +205,73 @@ public class CompositePattern {
             return components.get(i);
         }
 
+        @Override
+        public int getChildCount() {
+            return components.size();
+        }
+
+        /**
+         * 先序遍历子树所有节点（包括自己）的 Spliterator
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Spliterator<Component> spliterator() {
+            return new TreeSpliterator<Component>(TreeAdapter.COMPONENT, this, null, false);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<Component> stream() {
+            return TreeSpliterator.<Component>stream(TreeAdapter.COMPONENT, this, false);
+        }
+
+        /**
+         * 按子树大小拆分的并行流
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<Component> parallelStream() {
+            return TreeSpliterator.<Component>stream(TreeAdapter.COMPONENT, this, true);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<Component> leafStream(boolean parallel) {
+            return TreeSpliterator.<Component>leafStream(TreeAdapter.COMPONENT, this, parallel);
+        }
+
+        /**
+         * keep 拒绝一个节点时跳过它的整棵子树
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<Component> prunedStream(Predicate<? super Component> keep, boolean parallel) {
+            return TreeSpliterator.<Component>prunedStream(TreeAdapter.COMPONENT, this, keep, parallel);
+        }
+
         /**
          * 调用单个对象和调用组合对象一样的接口，所以用户看起来是一样的。
+         * 用 TreeCursor 先序遍历，不递归，也不为每个节点创建迭代器，很深的树也不会栈溢出。
+         * 只有类型正好是 Composite 的子节点在这里直接处理；树叶和 Composite 的子类交给它自己的 operation()，
+         * 不再遍历它的子节点，所以子类重写的 operation() 仍然会被调用。
          */
         @Override
         public void operation() {
             Log.d(TAG , "operation name = "+name);
-            for( Component component :components){
-                component.operation();
+            TreeCursor.PreOrder<Component> cursor = operationCursor.getAndSet(null);
+            if (cursor == null) {
+                cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT);
+            }
+            try {
+                cursor.reset(this);
+                // 第一个是自己
+                cursor.next();
+                for (Component node = cursor.next(); node != null; node = cursor.next()) {
+                    if (node.getClass() == Composite.class) {
+                        Log.d(TAG , "operation name = "+((Composite) node).name);
+                    } else {
+                        node.operation();
+                        cursor.skipChildren();
+                    }
+                }
+            } finally {
+                cursor.reset(null);
+                operationCursor.set(cursor);
             }
         }
     }
@@ -150,6 +312,10 @@ public class CompositePattern {
             this.name = name;
         }
 
+        public String getName() {
+            return name;
+        }
+
         @Override
         public void operation() {
             Log.d(TAG , "operation name = "+name);
@@ -169,6 +335,10 @@ public class CompositePattern {
             components = new ArrayList<>();
         }
 
+        public String getName() {
+            return name;
+        }
+
         /**
          * 扩展方法
          * @param c
@@ -182,7 +352,7 @@ public class CompositePattern {
          * @param c
          */
         public void remove(T c) {
-            components.add(c);
+            components.remove(c);
         }
 
         /**
@@ -193,14 +363,73 @@ public class CompositePattern {
             return components.get(i);
         }
 
+        /**
+         * 扩展方法
+         */
+        public int getChildCount() {
+            return components.size();
+        }
+
+        /**
+         * 先序遍历子树所有节点（包括自己）的 Spliterator
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Spliterator<ComponentSecurity> spliterator() {
+            return new TreeSpliterator<ComponentSecurity>(TreeAdapter.COMPONENT_SECURITY, this, null, false);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<ComponentSecurity> stream() {
+            return TreeSpliterator.<ComponentSecurity>stream(TreeAdapter.COMPONENT_SECURITY, this, false);
+        }
+
+        /**
+         * 按子树大小拆分的并行流
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<ComponentSecurity> parallelStream() {
+            return TreeSpliterator.<ComponentSecurity>stream(TreeAdapter.COMPONENT_SECURITY, this, true);
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<ComponentSecurity> leafStream(boolean parallel) {
+            return TreeSpliterator.<ComponentSecurity>leafStream(TreeAdapter.COMPONENT_SECURITY, this, parallel);
+        }
+
+        /**
+         * keep 拒绝一个节点时跳过它的整棵子树
+         */
+        @RequiresApi(api = Build.VERSION_CODES.N)
+        public Stream<ComponentSecurity> prunedStream(Predicate<? super ComponentSecurity> keep, boolean parallel) {
+            return TreeSpliterator.<ComponentSecurity>prunedStream(TreeAdapter.COMPONENT_SECURITY, this, keep, parallel);
+        }
+
         /**
          * 调用单个对象和调用组合对象一样的接口，所以用户看起来是一样的。
+         * 用 TreeCursor 先序遍历，不递归。和 Composite 一样，只有类型正好是 CompositeSecurity 的子节点在这里直接处理。
          */
         @Override
         public void operation() {
             Log.d(TAG , "operation name = "+name);
-            for( T compositeSecurity :components){
-                compositeSecurity.operation();
+            TreeCursor.PreOrder<ComponentSecurity> cursor = operationSecurityCursor.getAndSet(null);
+            if (cursor == null) {
+                cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT_SECURITY);
+            }
+            try {
+                cursor.reset(this);
+                // 第一个是自己
+                cursor.next();
+                for (ComponentSecurity node = cursor.next(); node != null; node = cursor.next()) {
+                    if (node.getClass() == CompositeSecurity.class) {
+                        Log.d(TAG , "operation name = "+((CompositeSecurity<?>) node).name);
+                    } else {
+                        node.operation();
+                        cursor.skipChildren();
+                    }
+                }
+            } finally {
+                cursor.reset(null);
+                operationSecurityCursor.set(cursor);
             }
         }
     }
@@ -220,4 +449,474 @@ public class CompositePattern {
         component2.add(leaf3);
         component1.operation();
     }
+
+    /**
+     * 单线程遍历和并行遍历的对比，树的形状分别是宽树、深树（一条长链）和偏斜的树
+     */
+    public void compositeParallelBenchmark() {
+        int size = 200000;
+        benchmark("wide", buildWide(size));
+        benchmark("deep", buildDeep(size));
+        benchmark("skewed", buildSkewed(size));
+    }
+
+    private void benchmark(String shape, Component root) {
+        ParallelTraversal<Component, Long> traversal = new ParallelTraversal<>(TreeAdapter.COMPONENT,
+                new ParallelTraversal.NodeVisitor<Component, Long>() {
+                    @Override
+                    public Long visit(Component node) {
+                        // 模拟每个节点的 CPU 密集工作
+                        long hash = System.identityHashCode(node);
+                        for (int i = 0; i < 200; i++) {
+                            hash = hash * 31 + i;
+                        }
+                        return hash;
+                    }
+                },
+                new ParallelTraversal.Combiner<Long>() {
+                    @Override
+                    public Long combine(Long a, Long b) {
+                        return a + b;
+                    }
+                }, 0L);
+
+        long start = System.nanoTime();
+        long sequential = traversal.invokeSequential(root);
+        long sequentialNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long parallel = traversal.invoke(root);
+        long parallelNanos = System.nanoTime() - start;
+        Log.d(TAG, shape + " sequential : " + sequentialNanos / 1000000 + " ms , parallel : "
+                + parallelNanos / 1000000 + " ms , same result : " + (sequential == parallel));
+    }
+
+    /**
+     * 对象树和扁平树的对比：内存占用和统计树叶个数的耗时
+     */
+    public void compositeFlatBenchmark() {
+        int size = 1000000;
+        long objectMemory = usedMemory();
+        Component root = buildWide(size);
+        objectMemory = usedMemory() - objectMemory;
+
+        long flatMemory = usedMemory();
+        FlatTree flat = FlatTree.fromComponent(root);
+        flatMemory = usedMemory() - flatMemory;
+
+        TreeCursor.PreOrder<Component> cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT);
+        long start = System.nanoTime();
+        int objectLeaves = 0;
+        cursor.reset(root);
+        for (Component node = cursor.next(); node != null; node = cursor.next()) {
+            if (node instanceof Leaf) {
+                objectLeaves++;
+            }
+        }
+        long objectNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int flatLeaves = flat.countLeaves(flat.root());
+        long flatNanos = System.nanoTime() - start;
+
+        Log.d(TAG, "object tree : " + objectMemory / 1024 + " KB , " + objectNanos / 1000000 + " ms , leaves " + objectLeaves);
+        Log.d(TAG, "flat tree : " + flatMemory / 1024 + " KB , " + flatNanos / 1000000 + " ms , leaves " + flatLeaves);
+    }
+
+    /**
+     * 流式读写：把树写成二进制和缩进文本，再分别生成树和不生成树直接处理
+     */
+    public void compositeStreamTest(File dir) {
+        try {
+            Component root = buildWide(1000000);
+            File binary = new File(dir, "composite.bin");
+            File text = new File(dir, "composite.txt");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(binary));
+            try {
+                CompositeStream.BinaryWriter writer = new CompositeStream.BinaryWriter(out);
+                CompositeStream.walk(root, writer);
+                writer.flush();
+            } finally {
+                out.close();
+            }
+            Writer textOut = new BufferedWriter(new FileWriter(text));
+            try {
+                CompositeStream.walk(root, new CompositeStream.IndentedWriter(textOut));
+            } finally {
+                textOut.close();
+            }
+            root = null;
+
+            long start = System.nanoTime();
+            CompositeStream.TreeBuilder builder = new CompositeStream.TreeBuilder(this);
+            InputStream in = new BufferedInputStream(new FileInputStream(binary));
+            try {
+                CompositeStream.readBinary(in, builder);
+            } finally {
+                in.close();
+            }
+            long buildNanos = System.nanoTime() - start;
+
+            final int[] counts = new int[2];
+            start = System.nanoTime();
+            Reader reader = new FileReader(text);
+            try {
+                CompositeStream.readIndented(reader, new CompositeStream.EventHandler() {
+                    @Override
+                    public void enter(String name, int childCount) {
+                        counts[0]++;
+                    }
+
+                    @Override
+                    public void leaf(String name) {
+                        counts[1]++;
+                    }
+
+                    @Override
+                    public void exit() {
+
+                    }
+                });
+            } finally {
+                reader.close();
+            }
+            long visitNanos = System.nanoTime() - start;
+            Log.d(TAG, "build from binary : " + buildNanos / 1000000 + " ms , children of root "
+                    + builder.getRoot().getChildCount());
+            Log.d(TAG, "visit text : " + visitNanos / 1000000 + " ms , composites " + counts[0] + " , leaves " + counts[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 多线程读、一个线程写：ConcurrentComposite 的快照遍历和全局锁保护的 Composite 对比，读线程从 1 到 64 个
+     */
+    public void compositeConcurrentBenchmark() {
+        final ConcurrentComposite concurrent = new ConcurrentComposite("root");
+        ConcurrentComposite.Batch batch = concurrent.batch();
+        final Composite locked = new Composite("root");
+        for (int i = 0; i < 100; i++) {
+            ConcurrentComposite.Node[] leaves = new ConcurrentComposite.Node[100];
+            Composite branch = new Composite("Node" + i);
+            for (int j = 0; j < leaves.length; j++) {
+                leaves[j] = ConcurrentComposite.leaf("Leaf" + j);
+                branch.add(new Leaf("Leaf" + j));
+            }
+            batch.add("root", ConcurrentComposite.composite("Node" + i, leaves));
+            locked.add(branch);
+        }
+        batch.commit();
+
+        for (int readers = 1; readers <= 64; readers *= 2) {
+            long snapshotReads = runReaders(readers, new Runnable() {
+                int round;
+
+                @Override
+                public void run() {
+                    String parent = "root/Node" + (round++ % 100);
+                    concurrent.batch().add(parent, ConcurrentComposite.leaf("Extra")).commit();
+                    concurrent.remove(parent, "Extra");
+                }
+            }, new ReadTask() {
+                @Override
+                public int read(TreeCursor.PreOrder<Component> cursor) {
+                    return count(cursor, concurrent.snapshot());
+                }
+            });
+            long lockedReads = runReaders(readers, new Runnable() {
+                int round;
+
+                @Override
+                public void run() {
+                    synchronized (locked) {
+                        Component parent = locked.getChild(round++ % 100);
+                        Component extra = new Leaf("Extra");
+                        parent.add(extra);
+                        parent.remove(extra);
+                    }
+                }
+            }, new ReadTask() {
+                @Override
+                public int read(TreeCursor.PreOrder<Component> cursor) {
+                    synchronized (locked) {
+                        return count(cursor, locked);
+                    }
+                }
+            });
+            Log.d(TAG, readers + " readers : snapshot " + snapshotReads + " traversals/s , locked " + lockedReads + " traversals/s");
+        }
+    }
+
+    private interface ReadTask {
+        int read(TreeCursor.PreOrder<Component> cursor);
+    }
+
+    private static int count(TreeCursor.PreOrder<Component> cursor, Component root) {
+        int nodes = 0;
+        cursor.reset(root);
+        while (cursor.next() != null) {
+            nodes++;
+        }
+        return nodes;
+    }
+
+    /**
+     * 一个写线程不停修改，readers 个读线程不停遍历 200 毫秒
+     * @return 每秒完成的遍历次数
+     */
+    private long runReaders(int readers, final Runnable write, final ReadTask read) {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong traversals = new AtomicLong();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    write.run();
+                }
+            }
+        };
+        Thread[] threads = new Thread[readers];
+        for (int i = 0; i < readers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    TreeCursor.PreOrder<Component> cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT);
+                    long count = 0;
+                    while (running.get()) {
+                        read.read(cursor);
+                        count++;
+                    }
+                    traversals.addAndGet(count);
+                }
+            };
+        }
+        long start = System.nanoTime();
+        writer.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            Thread.sleep(200);
+            running.set(false);
+            writer.join();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long nanos = System.nanoTime() - start;
+        return traversals.get() * 1000000000L / nanos;
+    }
+
+    /**
+     * 用流查询组合树：名字前缀的计数、剪枝，以及偏斜的树上顺序流和并行流的对比
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public void compositeStreamQueryTest() {
+        Composite root = (Composite) buildSkewed(1000000);
+        Predicate<Component> leafPrefix = new Predicate<Component>() {
+            @Override
+            public boolean test(Component component) {
+                return component instanceof Leaf && ((Leaf) component).getName().startsWith("Leaf1");
+            }
+        };
+
+        long start = System.nanoTime();
+        long sequential = root.stream().filter(leafPrefix).count();
+        long sequentialNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long parallel = root.parallelStream().filter(leafPrefix).count();
+        long parallelNanos = System.nanoTime() - start;
+        Log.d(TAG, "leaves Leaf1* sequential : " + sequential + " in " + sequentialNanos / 1000000 + " ms , parallel : "
+                + parallel + " in " + parallelNanos / 1000000 + " ms");
+
+        // 跳过 Node0 开头的树枝的整棵子树
+        long pruned = root.prunedStream(new Predicate<Component>() {
+            @Override
+            public boolean test(Component component) {
+                return !(component instanceof Composite) || !((Composite) component).getName().startsWith("Node0");
+            }
+        }, true).count();
+        Log.d(TAG, "nodes : " + root.parallelStream().count() + " , without Node0* : " + pruned);
+
+        CompositeSecurity<ComponentSecurity> security = new CompositeSecurity<>("Node1");
+        security.add(new LeafSecurity("Leaf1"));
+        security.add(new LeafSecurity("Leaf2"));
+        List<String> names = security.leafStream(false).map(new Function<ComponentSecurity, String>() {
+            @Override
+            public String apply(ComponentSecurity component) {
+                return ((LeafSecurity) component).getName();
+            }
+        }).collect(Collectors.<String>toList());
+        Log.d(TAG, "security leaves : " + names);
+    }
+
+    /**
+     * 比较两个版本的树：只有一小部分变化时，比较的时间和变化的区域成正比
+     */
+    public void compositeDiffTest() {
+        Component oldRoot = buildWide(200000);
+        Component newRoot = buildWide(200000);
+        Component branch = newRoot.getChild(3);
+        branch.remove(branch.getChild(0));
+        branch.add(new Leaf("Leaf" + 1000));
+        ((Leaf) newRoot.getChild(7).getChild(5)).setName("Renamed");
+        Component moved = newRoot.getChild(9);
+        newRoot.remove(moved);
+        newRoot.getChild(20).add(moved);
+
+        CompositeDiff diff = new CompositeDiff(this);
+        long start = System.nanoTime();
+        diff.hash(oldRoot);
+        diff.hash(newRoot);
+        long hashNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        CompositeDiff.Patch patch = diff.diff(oldRoot, newRoot);
+        long diffNanos = System.nanoTime() - start;
+        for (CompositeDiff.Op op : patch.getOps()) {
+            Log.d(TAG, op.toString());
+        }
+        patch.apply();
+        Log.d(TAG, "hash : " + hashNanos / 1000000 + " ms , diff : " + diffNanos / 1000000 + " ms , same after apply : "
+                + (diff.hash(oldRoot) == diff.hash(newRoot)));
+    }
+
+    /**
+     * 懒加载的目录树：遍历时按需加载并预取兄弟目录，超过预算时淘汰最久没有访问的子树
+     */
+    public void compositeLazyTest(File dir) {
+        File root = new File(dir, "lazy");
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 20; j++) {
+                File child = new File(root, "Node" + i + "/Node" + j);
+                child.mkdirs();
+                try {
+                    new File(child, "Leaf").createNewFile();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        LazyComposite.Context context = new LazyComposite.Context(new LazyComposite.FileChildLoader(), executor, 100, 4);
+        LazyComposite lazy = context.root("lazy", root.getAbsolutePath());
+        TreeCursor.PreOrder<Component> cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT);
+        int nodes = 0;
+        long start = System.nanoTime();
+        cursor.reset(lazy);
+        for (Component node = cursor.next(); node != null; node = cursor.next()) {
+            nodes++;
+        }
+        long nanos = System.nanoTime() - start;
+        executor.shutdown();
+        Log.d(TAG, "nodes : " + nodes + " , " + nanos / 1000000 + " ms , loads : " + context.loadCount()
+                + " , evictions : " + context.evictionCount() + " , loaded children : " + context.loadedChildren());
+    }
+
+    /**
+     * 带索引的组合树：按路径、按名字查找，O(1) 删除
+     */
+    public void compositeIndexedTest() {
+        IndexedComposite.Branch component1 = new IndexedComposite.Branch("Node1");
+        IndexedComposite.Branch component2 = new IndexedComposite.Branch("Node2");
+        component2.addAll(Arrays.asList(new IndexedComposite.Leaf("Leaf2"), new IndexedComposite.Leaf("Leaf3")));
+        component1.addAll(Arrays.asList(new IndexedComposite.Leaf("Leaf1"), component2));
+        component1.findByPath("Node1/Node2/Leaf3").operation();
+
+        IndexedComposite leaf2 = component1.findByPath("Node1/Node2/Leaf2");
+        component2.remove(leaf2);
+        Log.d(TAG, "after remove : " + component1.findByPath("Node1/Node2/Leaf2") + " , Leaf3 at "
+                + component2.indexOf(component1.findByPath("Node1/Node2/Leaf3")));
+
+        component1.remove(component2);
+        Log.d(TAG, "detached : " + component2.findByPath("Node2/Leaf3").getPath()
+                + " , Node1 has Leaf3 : " + !component1.findByName("Leaf3").isEmpty());
+    }
+
+    /**
+     * 缓存聚合值的组合树：修改一个树叶后查询根节点，和每次完整遍历的对比
+     */
+    public void compositeAggregateTest() {
+        AggregateComposite.Branch root = new AggregateComposite.Branch("root");
+        AggregateComposite.Leaf target = null;
+        int branches = 500;
+        for (int i = 0; i < branches; i++) {
+            AggregateComposite.Branch branch = new AggregateComposite.Branch("Node" + i);
+            for (int j = 0; j < branches; j++) {
+                AggregateComposite.Leaf leaf = new AggregateComposite.Leaf("Leaf" + j, j);
+                branch.add(leaf);
+                target = leaf;
+            }
+            root.add(branch);
+        }
+        Log.d(TAG, "size = " + root.size() + " , leafSum = " + root.leafSum() + " , maxDepth = " + root.maxDepth());
+
+        int updates = 1000;
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < updates; i++) {
+            target.setValue(i);
+            sum += root.leafSum();
+        }
+        long incrementalNanos = System.nanoTime() - start;
+
+        TreeCursor.PreOrder<Component> cursor = new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT);
+        start = System.nanoTime();
+        long fullSum = 0;
+        for (int i = 0; i < updates; i++) {
+            target.setValue(i);
+            cursor.reset(root);
+            for (Component node = cursor.next(); node != null; node = cursor.next()) {
+                if (node instanceof AggregateComposite.Leaf) {
+                    fullSum += ((AggregateComposite.Leaf) node).getValue();
+                }
+            }
+        }
+        long fullNanos = System.nanoTime() - start;
+        Log.d(TAG, "incremental : " + incrementalNanos / updates + " ns/query , full pass : "
+                + fullNanos / updates + " ns/query , same result : " + (sum == fullSum));
+    }
+
+    private long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Component buildWide(int size) {
+        Component root = new Composite("root");
+        int branches = (int) Math.sqrt(size);
+        for (int i = 0; i < branches; i++) {
+            Component branch = new Composite("Node" + i);
+            for (int j = 0; j < branches; j++) {
+                branch.add(new Leaf("Leaf" + j));
+            }
+            root.add(branch);
+        }
+        return root;
+    }
+
+    private Component buildDeep(int size) {
+        Component root = new Composite("root");
+        Component current = root;
+        for (int i = 0; i < size / 2; i++) {
+            Component next = new Composite("Node" + i);
+            current.add(new Leaf("Leaf" + i));
+            current.add(next);
+            current = next;
+        }
+        return root;
+    }
+
+    private Component buildSkewed(int size) {
+        Component root = new Composite("root");
+        // 九成的节点集中在第一个分支里
+        root.add(buildWide(size * 9 / 10));
+        for (int i = 0; i < size / 10; i++) {
+            root.add(new Leaf("Leaf" + i));
+        }
+        return root;
+    }
 }
@@ -0,0 +1,376 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 组合树的流式读写：按事件（进入树枝、树叶、离开树枝）处理层次数据，不需要先把整棵树放进内存。
+ * <p>
+ * 几百万个节点的层次数据如果先读成对象再一个个 add()，子节点的 ArrayList 会反复扩容，
+ * 而很多时候只需要对每个节点做一次 operation() 式的处理，根本不需要整棵树。
+ * 1。事件源：readIndented 读缩进文本，readBinary 读二进制格式，walk 遍历已有的对象树，都只用和树深度成正比的内存。
+ * 2。EventHandler 处理事件：可以直接处理每个节点（不生成树），
+ * 也可以用 TreeBuilder 生成 Composite 树，树枝在离开时才创建，子节点个数已知，ArrayList 按实际大小分配。
+ * 3。IndentedWriter、BinaryWriter 也是 EventHandler，配合 walk 把对象树写出去。
+ * <p>
+ * 缩进文本：每行一个节点名，子节点比父节点多缩进一级，缩进的宽度由第一个缩进的行决定；后面有更深的行的节点是树枝。
+ * 没有子节点的树枝在文本里无法和树叶区分，读出来是树叶。
+ * <p>
+ * 二进制格式（大端）：int magic，然后按先序每个节点 byte kind, UTF name，树枝再跟 int childCount。
+ */
+public class CompositeStream {
+
+    private static final String TAG = "CompositeStream";
+
+    private static final int MAGIC = 0x43505354;
+    private static final byte KIND_LEAF = 0;
+    private static final byte KIND_COMPOSITE = 1;
+
+    /**
+     * 层次数据的事件，enter 和 exit 成对出现
+     */
+    public interface EventHandler {
+        /**
+         * 进入树枝
+         * @param childCount 子节点个数，事件源不知道时为 -1
+         */
+        void enter(String name, int childCount) throws IOException;
+
+        void leaf(String name) throws IOException;
+
+        /**
+         * 离开最近进入的树枝
+         */
+        void exit() throws IOException;
+    }
+
+    /**
+     * 读缩进文本，只预读一行
+     */
+    public static void readIndented(Reader reader, EventHandler handler) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        int indent = 0;
+        int open = 0;
+        String previous = null;
+        int previousDepth = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            int width = 0;
+            while (width < line.length() && (line.charAt(width) == ' ' || line.charAt(width) == '\t')) {
+                width++;
+            }
+            if (width == line.length()) {
+                continue;
+            }
+            if (width > 0 && indent == 0) {
+                indent = width;
+            }
+            if (width > 0 && width % indent != 0) {
+                throw new IOException("Bad indentation at line " + lineNumber);
+            }
+            int depth = width == 0 ? 0 : width / indent;
+            if (previous == null) {
+                if (depth != 0) {
+                    throw new IOException("Root must not be indented at line " + lineNumber);
+                }
+            } else {
+                if (depth == 0) {
+                    throw new IOException("Multiple roots at line " + lineNumber);
+                }
+                if (depth > previousDepth + 1) {
+                    throw new IOException("Bad indentation at line " + lineNumber);
+                }
+                // 下一行更深，上一行是树枝；否则上一行是树叶，并且离开比这一行深的树枝
+                if (depth == previousDepth + 1) {
+                    handler.enter(previous, -1);
+                    open++;
+                } else {
+                    handler.leaf(previous);
+                    for (; open > depth; open--) {
+                        handler.exit();
+                    }
+                }
+            }
+            previous = line.substring(width).trim();
+            previousDepth = depth;
+        }
+        if (previous != null) {
+            handler.leaf(previous);
+            for (; open > 0; open--) {
+                handler.exit();
+            }
+        }
+    }
+
+    /**
+     * 读二进制格式，栈里只保存每一层还剩下几个子节点
+     */
+    public static void readBinary(InputStream input, EventHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a composite stream");
+        }
+        int[] remaining = new int[16];
+        int top = 0;
+        do {
+            byte kind = in.readByte();
+            String name = in.readUTF();
+            boolean finished;
+            if (kind == KIND_COMPOSITE) {
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Negative child count " + count + " of " + name);
+                }
+                handler.enter(name, count);
+                if (count == 0) {
+                    handler.exit();
+                    finished = true;
+                } else {
+                    if (top == remaining.length) {
+                        remaining = Arrays.copyOf(remaining, top * 2);
+                    }
+                    remaining[top++] = count;
+                    finished = false;
+                }
+            } else if (kind == KIND_LEAF) {
+                handler.leaf(name);
+                finished = true;
+            } else {
+                throw new IOException("Unknown node kind " + kind);
+            }
+            // 一个节点结束，父节点的子节点都结束时离开父节点
+            while (finished && top > 0) {
+                if (--remaining[top - 1] == 0) {
+                    top--;
+                    handler.exit();
+                } else {
+                    finished = false;
+                }
+            }
+        } while (top > 0);
+    }
+
+    /**
+     * 把已有的对象树转换成事件，只支持 Composite 和 Leaf
+     */
+    public static void walk(CompositePattern.Component root, EventHandler handler) throws IOException {
+        Object[] stack = new Object[16];
+        int[] next = new int[16];
+        int top = 0;
+        if (!emit(root, handler)) {
+            return;
+        }
+        stack[top] = root;
+        next[top++] = 0;
+        while (top > 0) {
+            CompositePattern.Component node = (CompositePattern.Component) stack[top - 1];
+            int index = next[top - 1];
+            if (index < node.getChildCount()) {
+                next[top - 1] = index + 1;
+                CompositePattern.Component child = node.getChild(index);
+                if (emit(child, handler)) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                    }
+                    stack[top] = child;
+                    next[top++] = 0;
+                }
+            } else {
+                stack[--top] = null;
+                handler.exit();
+            }
+        }
+    }
+
+    /**
+     * @return 是否进入了树枝
+     */
+    private static boolean emit(CompositePattern.Component node, EventHandler handler) throws IOException {
+        if (node instanceof CompositePattern.Composite) {
+            handler.enter(((CompositePattern.Composite) node).getName(), node.getChildCount());
+            return true;
+        }
+        if (node instanceof CompositePattern.Leaf) {
+            handler.leaf(((CompositePattern.Leaf) node).getName());
+            return false;
+        }
+        throw new IllegalArgumentException("Unsupported component " + node.getClass().getName());
+    }
+
+    /**
+     * 生成 Composite 树：树枝在离开时才创建，按子节点的实际个数分配。
+     * 每一层的子节点暂存在按层复用的列表里。
+     */
+    public static class TreeBuilder implements EventHandler {
+
+        private final CompositePattern pattern;
+        private final ArrayList<String> names = new ArrayList<>();
+        private final ArrayList<ArrayList<CompositePattern.Component>> levels = new ArrayList<>();
+        private int depth;
+        private CompositePattern.Component root;
+
+        /**
+         * @param pattern 树叶和树枝构件是 CompositePattern 的内部类，需要外部类的实例
+         */
+        public TreeBuilder(CompositePattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public void enter(String name, int childCount) {
+            if (depth == names.size()) {
+                names.add(name);
+                levels.add(new ArrayList<CompositePattern.Component>(Math.max(childCount, 0)));
+            } else {
+                names.set(depth, name);
+                if (childCount > 0) {
+                    levels.get(depth).ensureCapacity(childCount);
+                }
+            }
+            depth++;
+        }
+
+        @Override
+        public void leaf(String name) {
+            append(pattern.new Leaf(name));
+        }
+
+        @Override
+        public void exit() {
+            depth--;
+            ArrayList<CompositePattern.Component> children = levels.get(depth);
+            CompositePattern.Composite composite = pattern.new Composite(names.get(depth), children.size());
+            for (int i = 0; i < children.size(); i++) {
+                composite.add(children.get(i));
+            }
+            children.clear();
+            append(composite);
+        }
+
+        private void append(CompositePattern.Component node) {
+            if (depth == 0) {
+                root = node;
+            } else {
+                levels.get(depth - 1).add(node);
+            }
+        }
+
+        /**
+         * @return 读完所有事件之后的根节点
+         */
+        public CompositePattern.Component getRoot() {
+            return root;
+        }
+    }
+
+    /**
+     * 写缩进文本
+     */
+    public static class IndentedWriter implements EventHandler {
+
+        private final Writer out;
+        private final String indent;
+        private int depth;
+
+        public IndentedWriter(Writer out) {
+            this(out, "  ");
+        }
+
+        public IndentedWriter(Writer out, String indent) {
+            this.out = out;
+            this.indent = indent;
+        }
+
+        @Override
+        public void enter(String name, int childCount) throws IOException {
+            leaf(name);
+            depth++;
+        }
+
+        @Override
+        public void leaf(String name) throws IOException {
+            for (int i = 0; i < depth; i++) {
+                out.write(indent);
+            }
+            out.write(name);
+            out.write('\n');
+        }
+
+        @Override
+        public void exit() {
+            depth--;
+        }
+    }
+
+    /**
+     * 写二进制格式，需要事件源提供子节点个数
+     */
+    public static class BinaryWriter implements EventHandler {
+
+        private final DataOutputStream out;
+
+        public BinaryWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+        }
+
+        @Override
+        public void enter(String name, int childCount) throws IOException {
+            if (childCount < 0) {
+                throw new IllegalArgumentException("Child count of " + name + " is unknown");
+            }
+            out.writeByte(KIND_COMPOSITE);
+            out.writeUTF(name);
+            out.writeInt(childCount);
+        }
+
+        @Override
+        public void leaf(String name) throws IOException {
+            out.writeByte(KIND_LEAF);
+            out.writeUTF(name);
+        }
+
+        @Override
+        public void exit() {
+
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * 不生成树，直接对每个节点做和 operation() 一样的处理
+     */
+    public static class OperationHandler implements EventHandler {
+
+        @Override
+        public void enter(String name, int childCount) {
+            Log.d(TAG, "operation name = " + name);
+        }
+
+        @Override
+        public void leaf(String name) {
+            Log.d(TAG, "operation name = " + name);
+        }
+
+        @Override
+        public void exit() {
+
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多线程读、少量写的组合树：读不加锁，写按批原子发布。
+ * <p>
+ * Composite 的子节点放在 ArrayList 里，一边遍历一边修改是不安全的；加一把全局锁又会让读线程互相等待。
+ * 1。节点（Node）不可变，子节点是不可变的数组。读线程用 snapshot() 拿到当前的根节点，之后遍历的就是一个一致的快照，不加锁。
+ * 2。修改时复制从根到被修改节点的路径（path copying），没有修改的子树在新旧版本之间共享，最后用 AtomicReference 替换根节点。
+ * 3。Batch 收集多个修改，commit 时一次发布，读线程要么看到全部修改，要么一个都看不到；同一个父节点在一批修改里只复制一次。
+ * 4。写线程之间用锁串行执行 commit。
+ * <p>
+ * 节点用路径定位，路径由名字和 "/" 组成，从根节点的名字开始，例如 "root/Node2"；同名的兄弟节点取第一个。
+ */
+public class ConcurrentComposite {
+
+    private static final String TAG = "ConcurrentComposite";
+
+    public static final String SEPARATOR = "/";
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * 不可变的节点
+     */
+    public static final class Node implements CompositePattern.Component {
+
+        private final String name;
+        private final Node[] children;
+
+        /**
+         * @param children 为null时是树叶
+         */
+        Node(String name, Node[] children) {
+            this.name = name;
+            this.children = children;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isComposite() {
+            return children != null;
+        }
+
+        /**
+         * 节点不可变，通过 ConcurrentComposite 或者 Batch 修改
+         */
+        @Override
+        public void add(CompositePattern.Component c) {
+            throw new UnsupportedOperationException("Node is immutable");
+        }
+
+        @Override
+        public void remove(CompositePattern.Component c) {
+            throw new UnsupportedOperationException("Node is immutable");
+        }
+
+        @Override
+        public Node getChild(int i) {
+            return children[i];
+        }
+
+        @Override
+        public int getChildCount() {
+            return children == null ? 0 : children.length;
+        }
+
+        /**
+         * @return 第一个名字相同的子节点的位置，没有时返回-1
+         */
+        public int indexOf(String childName) {
+            if (children != null) {
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i].name.equals(childName)) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void operation() {
+            TreeCursor.PreOrder<CompositePattern.Component> cursor =
+                    new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT).reset(this);
+            for (CompositePattern.Component node = cursor.next(); node != null; node = cursor.next()) {
+                Log.d(TAG, "operation name = " + ((Node) node).name);
+            }
+        }
+    }
+
+    public static Node leaf(String name) {
+        return new Node(name, null);
+    }
+
+    public static Node composite(String name, Node... children) {
+        for (Node child : children) {
+            if (child == null) {
+                throw new NullPointerException("child == null");
+            }
+        }
+        return new Node(name, children.length == 0 ? NO_CHILDREN : children.clone());
+    }
+
+    private final AtomicReference<Node> root;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public ConcurrentComposite(String rootName) {
+        root = new AtomicReference<>(new Node(rootName, NO_CHILDREN));
+    }
+
+    /**
+     * 当前版本的根节点，之后的修改不会影响它
+     */
+    public Node snapshot() {
+        return root.get();
+    }
+
+    /**
+     * 在当前版本里按路径查找
+     * @return 没有时返回null
+     */
+    public Node find(String path) {
+        return find(root.get(), path);
+    }
+
+    /**
+     * 在给定的快照里按路径查找
+     */
+    public static Node find(Node snapshot, String path) {
+        String[] names = path.split(SEPARATOR);
+        if (!names[0].equals(snapshot.name)) {
+            return null;
+        }
+        Node node = snapshot;
+        for (int i = 1; i < names.length && node != null; i++) {
+            int index = node.indexOf(names[i]);
+            node = index < 0 ? null : node.children[index];
+        }
+        return node;
+    }
+
+    /**
+     * 添加一个子节点，立即发布
+     */
+    public void add(String parentPath, Node child) {
+        batch().add(parentPath, child).commit();
+    }
+
+    /**
+     * 删除一个子节点，立即发布
+     */
+    public void remove(String parentPath, String childName) {
+        batch().remove(parentPath, childName).commit();
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * 一批修改，commit 时在当前版本上执行并一次发布。任何一个修改失败时什么也不发布。
+     * Batch 不是线程安全的，由一个写线程使用。
+     */
+    public class Batch {
+
+        private final ArrayList<Object> ops = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        /**
+         * @throws IllegalArgumentException commit 时父节点不存在或者是树叶
+         */
+        public Batch add(String parentPath, Node child) {
+            if (child == null) {
+                throw new NullPointerException("child == null");
+            }
+            ops.add(parentPath);
+            ops.add(child);
+            return this;
+        }
+
+        /**
+         * 删除父节点下第一个名字相同的子节点
+         * @throws IllegalArgumentException commit 时父节点或者子节点不存在
+         */
+        public Batch remove(String parentPath, String childName) {
+            ops.add(parentPath);
+            ops.add(childName);
+            return this;
+        }
+
+        public void commit() {
+            writeLock.lock();
+            try {
+                Draft draft = new Draft(root.get());
+                for (int i = 0; i < ops.size(); i += 2) {
+                    String parentPath = (String) ops.get(i);
+                    Object op = ops.get(i + 1);
+                    Draft parent = draft.resolve(parentPath);
+                    if (op instanceof Node) {
+                        parent.children.add(op);
+                    } else {
+                        int index = parent.indexOf((String) op);
+                        if (index < 0) {
+                            throw new IllegalArgumentException("No child " + op + " under " + parentPath);
+                        }
+                        parent.children.remove(index);
+                    }
+                }
+                root.set(draft.freeze());
+            } finally {
+                writeLock.unlock();
+            }
+            ops.clear();
+        }
+    }
+
+    /**
+     * commit 时被修改的路径上的可变副本，子节点是 Node（没有修改，共享）或者 Draft（被修改）
+     */
+    private static class Draft {
+
+        final String name;
+        final ArrayList<Object> children;
+
+        Draft(Node node) {
+            name = node.name;
+            children = new ArrayList<Object>(Arrays.asList((Object[]) node.children));
+        }
+
+        String nameOf(Object child) {
+            return child instanceof Node ? ((Node) child).name : ((Draft) child).name;
+        }
+
+        int indexOf(String childName) {
+            for (int i = 0; i < children.size(); i++) {
+                if (nameOf(children.get(i)).equals(childName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 沿着路径把经过的节点换成 Draft，已经是 Draft 的直接使用
+         */
+        Draft resolve(String path) {
+            String[] names = path.split(SEPARATOR);
+            if (!names[0].equals(name)) {
+                throw new IllegalArgumentException("No node " + path);
+            }
+            Draft current = this;
+            for (int i = 1; i < names.length; i++) {
+                int index = current.indexOf(names[i]);
+                if (index < 0) {
+                    throw new IllegalArgumentException("No node " + path);
+                }
+                Object child = current.children.get(index);
+                if (child instanceof Node) {
+                    if (!((Node) child).isComposite()) {
+                        throw new IllegalArgumentException(path + " is a leaf");
+                    }
+                    child = new Draft((Node) child);
+                    current.children.set(index, child);
+                }
+                current = (Draft) child;
+            }
+            return current;
+        }
+
+        /**
+         * 后序把 Draft 换成新的不可变节点，不递归
+         */
+        Node freeze() {
+            ArrayList<Draft> drafts = new ArrayList<>();
+            ArrayList<Integer> next = new ArrayList<>();
+            drafts.add(this);
+            next.add(0);
+            Node frozen = null;
+            while (!drafts.isEmpty()) {
+                int top = drafts.size() - 1;
+                Draft draft = drafts.get(top);
+                int index = next.get(top);
+                if (frozen != null) {
+                    // 上一个弹出的是 index - 1 位置的子节点
+                    draft.children.set(index - 1, frozen);
+                    frozen = null;
+                }
+                while (index < draft.children.size() && draft.children.get(index) instanceof Node) {
+                    index++;
+                }
+                if (index < draft.children.size()) {
+                    next.set(top, index + 1);
+                    drafts.add((Draft) draft.children.get(index));
+                    next.add(0);
+                    continue;
+                }
+                frozen = new Node(draft.name, draft.children.toArray(new Node[draft.children.size()]));
+                drafts.remove(top);
+                next.remove(top);
+            }
+            return frozen;
+        }
+    }
+}
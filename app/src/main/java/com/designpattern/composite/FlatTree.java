@@ -0,0 +1,333 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 扁平的组合树：用几个数组保存整棵树，一个节点就是一个 int 下标。
+ * <p>
+ * 每个 Composite/CompositeSecurity 节点都是一个对象，再加上自己的 ArrayList 和 Object[]，
+ * 节点很多时既占内存，遍历时又要在堆上到处跳转，缓存命中率很低。
+ * 扁平树把每个字段放在一个数组里：
+ * 1。结构：parent、firstChild、nextSibling，没有的用 NONE 表示。
+ * 2。内容：kinds 记录树叶还是树枝，nameCodes 记录名字编号，名字本身放在去重的字典里。
+ * 3。节点按先序排列，所以节点 i 的子树就是下标 [i, subtreeEnd(i)) 的连续区间，遍历子树就是一个数组循环。
+ * <p>
+ * 通过 fromComponent/fromComponentSecurity 从对象树生成，通过 toComponent/toComponentSecurity 转换回对象树。
+ * 扁平树生成后不能修改。
+ */
+public class FlatTree {
+
+    private static final String TAG = "FlatTree";
+
+    public static final int NONE = -1;
+    public static final byte KIND_LEAF = 0;
+    public static final byte KIND_COMPOSITE = 1;
+
+    /**
+     * 按先序遍历节点
+     */
+    public interface NodeVisitor {
+        void visit(int node, byte kind, String name);
+    }
+
+    private final int size;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] subtreeEnd;
+    private final byte[] kinds;
+    private final int[] nameCodes;
+    private final String[] names;
+
+    private FlatTree(Builder builder) {
+        size = builder.size;
+        parent = Arrays.copyOf(builder.parent, size);
+        firstChild = Arrays.copyOf(builder.firstChild, size);
+        nextSibling = Arrays.copyOf(builder.nextSibling, size);
+        kinds = Arrays.copyOf(builder.kinds, size);
+        nameCodes = Arrays.copyOf(builder.nameCodes, size);
+        names = Arrays.copyOf(builder.names, builder.nameCount);
+
+        // 子节点的下标总是比父节点大，倒序一遍就能算出每个子树的结束位置
+        subtreeEnd = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            if (subtreeEnd[i] < i + 1) {
+                subtreeEnd[i] = i + 1;
+            }
+            int p = parent[i];
+            if (p != NONE && subtreeEnd[p] < subtreeEnd[i]) {
+                subtreeEnd[p] = subtreeEnd[i];
+            }
+        }
+    }
+
+    /**
+     * 从透明式的组合树生成，只支持 Composite 和 Leaf
+     */
+    public static FlatTree fromComponent(CompositePattern.Component root) {
+        Builder builder = new Builder();
+        Object[] stack = new Object[16];
+        int[] parents = new int[16];
+        int top = 0;
+        stack[top] = root;
+        parents[top++] = NONE;
+        while (top > 0) {
+            CompositePattern.Component node = (CompositePattern.Component) stack[--top];
+            stack[top] = null;
+            int p = parents[top];
+            int index;
+            if (node instanceof CompositePattern.Composite) {
+                index = builder.append(p, KIND_COMPOSITE, ((CompositePattern.Composite) node).getName());
+            } else if (node instanceof CompositePattern.Leaf) {
+                index = builder.append(p, KIND_LEAF, ((CompositePattern.Leaf) node).getName());
+            } else {
+                throw new IllegalArgumentException("Unsupported component " + node.getClass().getName());
+            }
+            int count = node.getChildCount();
+            if (top + count > stack.length) {
+                int capacity = Math.max(top + count, stack.length * 2);
+                stack = Arrays.copyOf(stack, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+            }
+            // 倒序入栈，先出栈的是第一个子节点，保证先序
+            for (int i = count - 1; i >= 0; i--) {
+                stack[top] = node.getChild(i);
+                parents[top++] = index;
+            }
+        }
+        return new FlatTree(builder);
+    }
+
+    /**
+     * 从安全式的组合树生成，只支持 CompositeSecurity 和 LeafSecurity
+     */
+    public static FlatTree fromComponentSecurity(CompositePattern.ComponentSecurity root) {
+        Builder builder = new Builder();
+        Object[] stack = new Object[16];
+        int[] parents = new int[16];
+        int top = 0;
+        stack[top] = root;
+        parents[top++] = NONE;
+        while (top > 0) {
+            CompositePattern.ComponentSecurity node = (CompositePattern.ComponentSecurity) stack[--top];
+            stack[top] = null;
+            int p = parents[top];
+            if (node instanceof CompositePattern.CompositeSecurity) {
+                CompositePattern.CompositeSecurity<?> composite = (CompositePattern.CompositeSecurity<?>) node;
+                int index = builder.append(p, KIND_COMPOSITE, composite.getName());
+                int count = composite.getChildCount();
+                if (top + count > stack.length) {
+                    int capacity = Math.max(top + count, stack.length * 2);
+                    stack = Arrays.copyOf(stack, capacity);
+                    parents = Arrays.copyOf(parents, capacity);
+                }
+                for (int i = count - 1; i >= 0; i--) {
+                    stack[top] = composite.getChild(i);
+                    parents[top++] = index;
+                }
+            } else if (node instanceof CompositePattern.LeafSecurity) {
+                builder.append(p, KIND_LEAF, ((CompositePattern.LeafSecurity) node).getName());
+            } else {
+                throw new IllegalArgumentException("Unsupported component " + node.getClass().getName());
+            }
+        }
+        return new FlatTree(builder);
+    }
+
+    /**
+     * 转换回透明式的组合树
+     * @param pattern 树叶和树枝构件是 CompositePattern 的内部类，需要外部类的实例
+     */
+    public CompositePattern.Component toComponent(CompositePattern pattern) {
+        CompositePattern.Component[] nodes = new CompositePattern.Component[size];
+        for (int i = 0; i < size; i++) {
+            String name = names[nameCodes[i]];
+            nodes[i] = kinds[i] == KIND_COMPOSITE ? pattern.new Composite(name) : pattern.new Leaf(name);
+            if (parent[i] != NONE) {
+                nodes[parent[i]].add(nodes[i]);
+            }
+        }
+        return nodes[0];
+    }
+
+    /**
+     * 转换回安全式的组合树
+     */
+    @SuppressWarnings("unchecked")
+    public CompositePattern.ComponentSecurity toComponentSecurity(CompositePattern pattern) {
+        CompositePattern.ComponentSecurity[] nodes = new CompositePattern.ComponentSecurity[size];
+        for (int i = 0; i < size; i++) {
+            String name = names[nameCodes[i]];
+            nodes[i] = kinds[i] == KIND_COMPOSITE
+                    ? pattern.new CompositeSecurity<CompositePattern.ComponentSecurity>(name)
+                    : pattern.new LeafSecurity(name);
+            if (parent[i] != NONE) {
+                ((CompositePattern.CompositeSecurity<CompositePattern.ComponentSecurity>) nodes[parent[i]]).add(nodes[i]);
+            }
+        }
+        return nodes[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 根节点总是 0
+     */
+    public int root() {
+        return 0;
+    }
+
+    public int parent(int node) {
+        return parent[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * 子树的结束位置（不包含），子树的节点是 [node, subtreeEnd(node))
+     */
+    public int subtreeEnd(int node) {
+        return subtreeEnd[node];
+    }
+
+    public int subtreeSize(int node) {
+        return subtreeEnd[node] - node;
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    public byte kind(int node) {
+        return kinds[node];
+    }
+
+    public boolean isComposite(int node) {
+        return kinds[node] == KIND_COMPOSITE;
+    }
+
+    public String name(int node) {
+        return names[nameCodes[node]];
+    }
+
+    /**
+     * 名字在字典里的编号，相同的名字编号相同
+     */
+    public int nameCode(int node) {
+        return nameCodes[node];
+    }
+
+    /**
+     * 字典里不同名字的个数
+     */
+    public int nameCount() {
+        return names.length;
+    }
+
+    /**
+     * 先序遍历 node 的子树
+     */
+    public void forEach(int node, NodeVisitor visitor) {
+        int end = subtreeEnd[node];
+        for (int i = node; i < end; i++) {
+            visitor.visit(i, kinds[i], names[nameCodes[i]]);
+        }
+    }
+
+    /**
+     * node 的子树里树叶的个数
+     */
+    public int countLeaves(int node) {
+        int count = 0;
+        int end = subtreeEnd[node];
+        for (int i = node; i < end; i++) {
+            if (kinds[i] == KIND_LEAF) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 和 Composite.operation() 一样按先序输出每个节点
+     */
+    public void operation() {
+        for (int i = 0; i < size; i++) {
+            Log.d(TAG, "operation name = " + names[nameCodes[i]]);
+        }
+    }
+
+    /**
+     * 按先序追加节点
+     */
+    private static class Builder {
+
+        int size;
+        int[] parent = new int[16];
+        int[] firstChild = new int[16];
+        int[] nextSibling = new int[16];
+        int[] lastChild = new int[16];
+        byte[] kinds = new byte[16];
+        int[] nameCodes = new int[16];
+
+        String[] names = new String[16];
+        int nameCount;
+        final HashMap<String, Integer> nameIndex = new HashMap<>();
+
+        int append(int p, byte kind, String name) {
+            if (size == parent.length) {
+                int capacity = size * 2;
+                parent = Arrays.copyOf(parent, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                lastChild = Arrays.copyOf(lastChild, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                nameCodes = Arrays.copyOf(nameCodes, capacity);
+            }
+            int index = size++;
+            parent[index] = p;
+            firstChild[index] = NONE;
+            nextSibling[index] = NONE;
+            lastChild[index] = NONE;
+            kinds[index] = kind;
+            nameCodes[index] = codeOf(name);
+            if (p != NONE) {
+                if (lastChild[p] == NONE) {
+                    firstChild[p] = index;
+                } else {
+                    nextSibling[lastChild[p]] = index;
+                }
+                lastChild[p] = index;
+            }
+            return index;
+        }
+
+        private int codeOf(String name) {
+            Integer code = nameIndex.get(name);
+            if (code == null) {
+                if (nameCount == names.length) {
+                    names = Arrays.copyOf(names, nameCount * 2);
+                }
+                code = nameCount;
+                names[nameCount++] = name;
+                nameIndex.put(name, code);
+            }
+            return code;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * 带索引的组合树：按名字、按路径查找节点不用遍历，删除子节点是 O(1)。
+ * <p>
+ * Composite 的子节点放在 ArrayList 里，删除时要先线性查找；按名字找节点也只能遍历整棵树。这里：
+ * 1。每个节点记录自己在父节点子节点列表里的位置，删除时用最后一个子节点填补空位（swap-remove），
+ * 所以删除是 O(1)，代价是删除后兄弟节点的顺序会变。
+ * 2。每棵树共享一个 Index，保存路径 -> 节点和名字 -> 节点集合，路径用 "/" 分隔，从根节点的名字开始，例如 "Node1/Node2/Leaf3"。
+ * 3。添加或者删除一棵子树时，在同一次遍历里更新这棵子树所有节点的路径和索引，代价和子树的大小成正比。
+ * <p>
+ * 同一个父节点下不能有同名的子节点（路径必须唯一），名字里不能有 "/"。一个节点只能有一个父节点。该类不是线程安全的。
+ */
+public abstract class IndexedComposite implements CompositePattern.Component {
+
+    private static final String TAG = "IndexedComposite";
+
+    public static final String SEPARATOR = "/";
+
+    final String name;
+    Branch parent;
+    int position = -1;
+    String path;
+    Index index;
+
+    IndexedComposite(String name) {
+        if (name.contains(SEPARATOR)) {
+            throw new IllegalArgumentException("Name must not contain " + SEPARATOR + ": " + name);
+        }
+        this.name = name;
+        this.path = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Branch getParent() {
+        return parent;
+    }
+
+    /**
+     * 从根节点开始的路径
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 整棵树的路径索引和名字索引
+     */
+    static class Index {
+
+        private final HashMap<String, IndexedComposite> paths = new HashMap<>();
+        private final HashMap<String, Set<IndexedComposite>> names = new HashMap<>();
+
+        void register(IndexedComposite node) {
+            paths.put(node.path, node);
+            Set<IndexedComposite> nodes = names.get(node.name);
+            if (nodes == null) {
+                nodes = Collections.newSetFromMap(new IdentityHashMap<IndexedComposite, Boolean>());
+                names.put(node.name, nodes);
+            }
+            nodes.add(node);
+            node.index = this;
+        }
+
+        void unregister(IndexedComposite node) {
+            paths.remove(node.path);
+            Set<IndexedComposite> nodes = names.get(node.name);
+            if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+                names.remove(node.name);
+            }
+            node.index = null;
+        }
+    }
+
+    /**
+     * 树叶
+     */
+    public static class Leaf extends IndexedComposite {
+
+        public Leaf(String name) {
+            super(name);
+        }
+
+        @Override
+        public void add(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public void remove(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public CompositePattern.Component getChild(int i) {
+            return null;
+        }
+
+        @Override
+        public int getChildCount() {
+            return 0;
+        }
+
+        @Override
+        public void operation() {
+            Log.d(TAG, "operation name = " + name);
+        }
+    }
+
+    /**
+     * 树枝：新建的树枝是一棵树的根，拥有自己的 Index，被添加到别的树里之后改用那棵树的 Index
+     */
+    public static class Branch extends IndexedComposite {
+
+        private final ArrayList<IndexedComposite> components = new ArrayList<>();
+
+        public Branch(String name) {
+            super(name);
+            new Index().register(this);
+        }
+
+        /**
+         * @throws IllegalArgumentException c 不是 IndexedComposite，或者已经有同名的子节点
+         * @throws IllegalStateException    c 已经有父节点，或者 c 是自己的祖先
+         */
+        @Override
+        public void add(CompositePattern.Component c) {
+            IndexedComposite child = checkAdd(c);
+            checkPath(child.name);
+            attach(child);
+        }
+
+        /**
+         * 批量添加：先检查所有节点，全部通过后再添加，不会只添加一部分
+         */
+        public void addAll(Collection<? extends CompositePattern.Component> children) {
+            HashSet<String> batchNames = new HashSet<>();
+            for (CompositePattern.Component c : children) {
+                IndexedComposite child = checkAdd(c);
+                checkPath(child.name);
+                if (!batchNames.add(child.name)) {
+                    throw new IllegalArgumentException("Duplicate path " + childPath(child.name));
+                }
+            }
+            components.ensureCapacity(components.size() + children.size());
+            for (CompositePattern.Component c : children) {
+                attach((IndexedComposite) c);
+            }
+        }
+
+        /**
+         * 删除子节点，c 不是自己的子节点时什么也不做
+         */
+        @Override
+        public void remove(CompositePattern.Component c) {
+            if (c instanceof IndexedComposite && ((IndexedComposite) c).parent == this) {
+                detach((IndexedComposite) c);
+            }
+        }
+
+        /**
+         * 批量删除，不是自己的子节点的会被忽略
+         */
+        public void removeAll(Collection<? extends CompositePattern.Component> children) {
+            for (CompositePattern.Component c : children) {
+                remove(c);
+            }
+        }
+
+        @Override
+        public IndexedComposite getChild(int i) {
+            return components.get(i);
+        }
+
+        @Override
+        public int getChildCount() {
+            return components.size();
+        }
+
+        /**
+         * @return 子节点的位置，不是自己的子节点时返回-1
+         */
+        public int indexOf(CompositePattern.Component c) {
+            return c instanceof IndexedComposite && ((IndexedComposite) c).parent == this
+                    ? ((IndexedComposite) c).position : -1;
+        }
+
+        /**
+         * 在整棵树里按路径查找，例如 "Node1/Node2/Leaf3"
+         * @return 没有时返回null
+         */
+        public IndexedComposite findByPath(String path) {
+            return index.paths.get(path);
+        }
+
+        /**
+         * 在整棵树里按名字查找
+         */
+        public Collection<IndexedComposite> findByName(String name) {
+            Set<IndexedComposite> nodes = index.names.get(name);
+            return nodes == null ? Collections.<IndexedComposite>emptySet() : Collections.unmodifiableSet(nodes);
+        }
+
+        private IndexedComposite checkAdd(CompositePattern.Component c) {
+            if (!(c instanceof IndexedComposite)) {
+                throw new IllegalArgumentException("Unsupported component " + c);
+            }
+            IndexedComposite child = (IndexedComposite) c;
+            if (child.parent != null) {
+                throw new IllegalStateException(child.name + " already has a parent " + child.parent.name);
+            }
+            // 没有父节点的树枝是一棵树的根，自己也在这棵树里时才会成环
+            if (child.index == index) {
+                throw new IllegalStateException("Cannot add an ancestor " + child.name + " as a child");
+            }
+            return child;
+        }
+
+        private void checkPath(String childName) {
+            if (index.paths.containsKey(childPath(childName))) {
+                throw new IllegalArgumentException("Duplicate path " + childPath(childName));
+            }
+        }
+
+        private String childPath(String childName) {
+            return path + SEPARATOR + childName;
+        }
+
+        private void attach(IndexedComposite child) {
+            child.parent = this;
+            child.position = components.size();
+            components.add(child);
+            reindex(child, index, childPath(child.name));
+        }
+
+        private void detach(IndexedComposite child) {
+            int last = components.size() - 1;
+            IndexedComposite moved = components.remove(last);
+            if (moved != child) {
+                components.set(child.position, moved);
+                moved.position = child.position;
+            }
+            child.parent = null;
+            child.position = -1;
+            // 删除的树枝成为新的一棵树的根，树叶不属于任何树
+            reindex(child, child instanceof Branch ? new Index() : null, child.name);
+        }
+
+        /**
+         * 把 root 的子树从原来的索引移到 target，同时更新路径
+         */
+        private static void reindex(IndexedComposite root, Index target, String rootPath) {
+            TreeCursor.PreOrder<CompositePattern.Component> cursor =
+                    new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT).reset(root);
+            for (CompositePattern.Component c = cursor.next(); c != null; c = cursor.next()) {
+                IndexedComposite node = (IndexedComposite) c;
+                if (node.index != null) {
+                    node.index.unregister(node);
+                }
+                // 先序遍历，父节点的路径已经更新
+                node.path = node == root ? rootPath : node.parent.path + SEPARATOR + node.name;
+                if (target != null) {
+                    target.register(node);
+                }
+            }
+        }
+
+        @Override
+        public void operation() {
+            TreeCursor.PreOrder<CompositePattern.Component> cursor =
+                    new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT).reset(this);
+            for (CompositePattern.Component node = cursor.next(); node != null; node = cursor.next()) {
+                if (node instanceof Branch) {
+                    Log.d(TAG, "operation name = " + ((Branch) node).name);
+                } else {
+                    node.operation();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package com.designpattern.composite;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按需加载子节点的树枝：子节点在第一次 getChild/getChildCount 时才通过 ChildLoader 加载。
+ * <p>
+ * 组合树对应一个很大的外部层次结构（例如目录树）时，大部分子树在一次使用中根本不会访问。
+ * 1。加载：树枝一开始只有名字和 key，访问子节点时才调用 ChildLoader.loadChildren(key)。
+ * 2。预取：一个树枝被按需加载时，在 Executor 上异步加载它后面的几个兄弟树枝，遍历到它们时通常已经加载好了。
+ * 同一个树枝的按需加载和预取共享一个 FutureTask，不会重复加载。
+ * 3。淘汰：Context 按最近访问的顺序记录已加载的树枝，加载的子节点总数超过预算时，
+ * 卸载最久没有访问的树枝的整棵子树，再次访问时重新加载。
+ * 访问子节点时不加锁，只把树枝写进一个有损的分段读缓冲区，缓冲区满时尝试获取锁，批量调整访问顺序（和 FlyweightPool 一样）。
+ * 4。修改过的树枝（add/remove）和它的祖先会被固定，不再淘汰，否则修改会丢失。
+ * 5。树枝被卸载后，之前从它拿到的子树枝就过期了（重新加载会创建新的子节点）。过期的树枝仍然可以读，
+ * 但 add/remove 会抛出 IllegalStateException，需要从父节点重新获取。固定和卸载在同一把锁里进行，所以不会有修改丢失。
+ * <p>
+ * getChild、getChildCount、operation 的用法和 Composite 一样。加载失败时抛出 IllegalStateException。
+ * 预取在后台线程进行，但遍历和修改不能同时进行。
+ */
+public class LazyComposite implements CompositePattern.Component {
+
+    private static final String TAG = "LazyComposite";
+
+    /**
+     * 子节点的描述
+     */
+    public static class Entry {
+        final String name;
+        final String key;
+        final boolean composite;
+
+        /**
+         * @param key       树枝用来加载自己的子节点，树叶可以为null
+         * @param composite 是否是树枝
+         */
+        public Entry(String name, String key, boolean composite) {
+            this.name = name;
+            this.key = key;
+            this.composite = composite;
+        }
+    }
+
+    /**
+     * 加载一个树枝的子节点，可能在后台线程调用
+     */
+    public interface ChildLoader {
+        List<Entry> loadChildren(String key) throws IOException;
+    }
+
+    /**
+     * 一棵懒加载树共享的配置和淘汰记录
+     */
+    public static class Context {
+
+        private static final int READ_BUFFER_SIZE = 16;
+        private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+        private static final int READ_BUFFER_STRIPES = 4;
+
+        final ChildLoader loader;
+        final Executor executor;
+        final int budget;
+        final int prefetchCount;
+
+        private final AtomicInteger loads = new AtomicInteger();
+        private final AtomicInteger evictions = new AtomicInteger();
+        private final AtomicLong[] readCounters;
+        private final AtomicReferenceArray<LazyComposite> readBuffer;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // 以下字段由 lock 保护
+        /**
+         * 按访问顺序排列，最久没有访问的在最前面
+         */
+        private final LinkedHashMap<LazyComposite, Boolean> loaded = new LinkedHashMap<>(16, 0.75f, true);
+        private int loadedChildren;
+
+        /**
+         * @param executor      预取用的线程池
+         * @param budget        最多同时加载的子节点个数
+         * @param prefetchCount 按需加载一个树枝时，预取它后面几个兄弟树枝，0 表示不预取
+         */
+        public Context(ChildLoader loader, Executor executor, int budget, int prefetchCount) {
+            if (budget <= 0) {
+                throw new IllegalArgumentException("budget must be positive: " + budget);
+            }
+            this.loader = loader;
+            this.executor = executor;
+            this.budget = budget;
+            this.prefetchCount = prefetchCount;
+            readCounters = new AtomicLong[READ_BUFFER_STRIPES];
+            for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+                readCounters[i] = new AtomicLong();
+            }
+            readBuffer = new AtomicReferenceArray<>(READ_BUFFER_STRIPES * READ_BUFFER_SIZE);
+        }
+
+        /**
+         * 创建根节点
+         */
+        public LazyComposite root(String name, String key) {
+            return new LazyComposite(this, null, name, key, 0);
+        }
+
+        /**
+         * 当前加载的子节点总数
+         */
+        public int loadedChildren() {
+            lock.lock();
+            try {
+                return loadedChildren;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int loadCount() {
+            return loads.get();
+        }
+
+        public int evictionCount() {
+            return evictions.get();
+        }
+
+        /**
+         * 访问后记录到读缓冲区，不加锁。缓冲区被覆盖时丢失的记录只会让访问顺序稍微不准确。
+         */
+        void touch(LazyComposite node) {
+            int stripe = (int) (Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1));
+            long index = readCounters[stripe].getAndIncrement();
+            readBuffer.lazySet(stripe * READ_BUFFER_SIZE + (int) (index & READ_BUFFER_MASK), node);
+            if ((index & READ_BUFFER_MASK) == READ_BUFFER_MASK && lock.tryLock()) {
+                try {
+                    drainReadBuffer();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * 由 lock 保护。已经被卸载的树枝不在 loaded 里，get 不会把它加回去
+         */
+        private void drainReadBuffer() {
+            for (int i = 0; i < readBuffer.length(); i++) {
+                LazyComposite node = readBuffer.getAndSet(i, null);
+                if (node != null) {
+                    loaded.get(node);
+                }
+            }
+        }
+
+        void resize(int delta) {
+            lock.lock();
+            try {
+                loadedChildren += delta;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onLoaded(LazyComposite node, int childCount) {
+            loads.incrementAndGet();
+            lock.lock();
+            try {
+                if (node.detached) {
+                    // 加载完成之前父节点已经被卸载，这个树枝不在树里了，不占用预算
+                    return;
+                }
+                drainReadBuffer();
+                loaded.put(node, Boolean.TRUE);
+                loadedChildren += childCount;
+                while (loadedChildren > budget) {
+                    LazyComposite victim = eldestEvictable(node);
+                    if (victim == null) {
+                        break;
+                    }
+                    unload(victim);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 固定树枝和它的祖先，和卸载在同一把锁里，所以固定之后不会再被卸载
+         * @throws IllegalStateException 树枝已经过期
+         */
+        void pin(LazyComposite node) {
+            lock.lock();
+            try {
+                // 从过期的树枝加载出来的子节点也不在树里，所以要检查所有祖先
+                for (LazyComposite current = node; current != null; current = current.parent) {
+                    if (current.detached) {
+                        throw new IllegalStateException(node.key + " was unloaded, get it again from its parent");
+                    }
+                }
+                for (; node != null && !node.pinned; node = node.parent) {
+                    node.pinned = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 跳过固定的树枝，也跳过刚加载的树枝和它的祖先
+         */
+        private LazyComposite eldestEvictable(LazyComposite keep) {
+            Iterator<LazyComposite> iterator = loaded.keySet().iterator();
+            while (iterator.hasNext()) {
+                LazyComposite node = iterator.next();
+                if (!node.pinned && !isAncestorOrSelf(node, keep)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        private static boolean isAncestorOrSelf(LazyComposite node, LazyComposite descendant) {
+            for (LazyComposite current = descendant; current != null; current = current.parent) {
+                if (current == node) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 卸载 root 的整棵已加载的子树，子树里的树枝都标记为过期。由 lock 保护
+         */
+        private void unload(LazyComposite root) {
+            evictions.incrementAndGet();
+            ArrayList<LazyComposite> stack = new ArrayList<>();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                LazyComposite node = stack.remove(stack.size() - 1);
+                ArrayList<CompositePattern.Component> children;
+                synchronized (node) {
+                    children = node.children;
+                    node.children = null;
+                }
+                if (children == null) {
+                    continue;
+                }
+                loaded.remove(node);
+                loadedChildren -= children.size();
+                for (int i = 0; i < children.size(); i++) {
+                    CompositePattern.Component child = children.get(i);
+                    if (child instanceof LazyComposite) {
+                        ((LazyComposite) child).detached = true;
+                        stack.add((LazyComposite) child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 树叶
+     */
+    public static class Leaf implements CompositePattern.Component {
+
+        final String name;
+
+        public Leaf(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void add(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public void remove(CompositePattern.Component c) {
+
+        }
+
+        @Override
+        public CompositePattern.Component getChild(int i) {
+            return null;
+        }
+
+        @Override
+        public int getChildCount() {
+            return 0;
+        }
+
+        @Override
+        public void operation() {
+            Log.d(TAG, "operation name = " + name);
+        }
+    }
+
+    /**
+     * 读取本地目录：子目录是树枝，文件是树叶，按名字排序，key 是绝对路径
+     */
+    public static class FileChildLoader implements ChildLoader {
+
+        @Override
+        public List<Entry> loadChildren(String key) throws IOException {
+            File[] files = new File(key).listFiles();
+            if (files == null) {
+                throw new IOException("Cannot list " + key);
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return a.getName().compareTo(b.getName());
+                }
+            });
+            ArrayList<Entry> entries = new ArrayList<>(files.length);
+            for (File file : files) {
+                entries.add(new Entry(file.getName(), file.getAbsolutePath(), file.isDirectory()));
+            }
+            return entries;
+        }
+    }
+
+    private final Context context;
+    private final String name;
+    private final String key;
+    final LazyComposite parent;
+    private final int position;
+
+    /**
+     * 已加载的子节点，没有加载或者被卸载时为null
+     */
+    private ArrayList<CompositePattern.Component> children;
+    private LoadTask loading;
+    volatile boolean pinned;
+    /**
+     * 父节点被卸载后为 true，这个对象已经不在树里了
+     */
+    volatile boolean detached;
+
+    private LazyComposite(Context context, LazyComposite parent, String name, String key, int position) {
+        this.context = context;
+        this.parent = parent;
+        this.name = name;
+        this.key = key;
+        this.position = position;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public synchronized boolean isLoaded() {
+        return children != null;
+    }
+
+    /**
+     * 父节点被卸载后，这个树枝就过期了，修改它会抛出 IllegalStateException
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * 修改子节点，修改后该树枝和它的祖先不再被淘汰
+     * @throws IllegalStateException 树枝已经过期（父节点被卸载过），需要从父节点重新获取
+     */
+    @Override
+    public void add(CompositePattern.Component c) {
+        context.pin(this);
+        ArrayList<CompositePattern.Component> list = load();
+        synchronized (this) {
+            list.add(c);
+        }
+        context.resize(1);
+    }
+
+    @Override
+    public void remove(CompositePattern.Component c) {
+        context.pin(this);
+        ArrayList<CompositePattern.Component> list = load();
+        boolean removed;
+        synchronized (this) {
+            removed = list.remove(c);
+        }
+        if (removed) {
+            context.resize(-1);
+        }
+    }
+
+    @Override
+    public CompositePattern.Component getChild(int i) {
+        return load().get(i);
+    }
+
+    @Override
+    public int getChildCount() {
+        return load().size();
+    }
+
+    /**
+     * 先序遍历，访问到的树枝按需加载
+     */
+    @Override
+    public void operation() {
+        TreeCursor.PreOrder<CompositePattern.Component> cursor =
+                new TreeCursor.PreOrder<>(TreeAdapter.COMPONENT).reset(this);
+        for (CompositePattern.Component node = cursor.next(); node != null; node = cursor.next()) {
+            if (node instanceof LazyComposite) {
+                Log.d(TAG, "operation name = " + ((LazyComposite) node).name);
+            } else {
+                node.operation();
+                cursor.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 返回已加载的子节点；没有加载时在当前线程加载，如果正在预取就等待预取完成
+     */
+    private ArrayList<CompositePattern.Component> load() {
+        LoadTask task;
+        synchronized (this) {
+            if (children != null) {
+                task = null;
+            } else {
+                if (loading == null) {
+                    loading = new LoadTask();
+                }
+                task = loading;
+            }
+        }
+        if (task == null) {
+            ArrayList<CompositePattern.Component> list;
+            synchronized (this) {
+                list = children;
+            }
+            if (list != null) {
+                context.touch(this);
+                return list;
+            }
+            // 刚好被卸载，重新加载
+            return load();
+        }
+        // 预取已经开始或者完成时 run 什么也不做
+        task.run();
+        prefetchSiblings();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + key, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot load children of " + key, e.getCause());
+        }
+    }
+
+    private void prefetch() {
+        LoadTask task;
+        synchronized (this) {
+            if (children != null || loading != null) {
+                return;
+            }
+            task = loading = new LoadTask();
+        }
+        try {
+            context.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                if (loading == task) {
+                    loading = null;
+                }
+            }
+        }
+    }
+
+    private void prefetchSiblings() {
+        if (parent == null || context.prefetchCount <= 0) {
+            return;
+        }
+        ArrayList<CompositePattern.Component> siblings;
+        int index;
+        synchronized (parent) {
+            siblings = parent.children;
+            if (siblings == null) {
+                return;
+            }
+            // 父节点被修改过时位置可能变了
+            index = position < siblings.size() && siblings.get(position) == this ? position : siblings.indexOf(this);
+        }
+        if (index < 0) {
+            return;
+        }
+        int end = Math.min(siblings.size(), index + 1 + context.prefetchCount);
+        for (int i = index + 1; i < end; i++) {
+            CompositePattern.Component sibling = siblings.get(i);
+            if (sibling instanceof LazyComposite) {
+                ((LazyComposite) sibling).prefetch();
+            }
+        }
+    }
+
+    /**
+     * 加载子节点，完成后发布到 children
+     */
+    private class LoadTask extends FutureTask<ArrayList<CompositePattern.Component>> {
+
+        LoadTask() {
+            super(new Callable<ArrayList<CompositePattern.Component>>() {
+                @Override
+                public ArrayList<CompositePattern.Component> call() throws IOException {
+                    List<Entry> entries = context.loader.loadChildren(key);
+                    ArrayList<CompositePattern.Component> list = new ArrayList<>(entries.size());
+                    for (int i = 0; i < entries.size(); i++) {
+                        Entry entry = entries.get(i);
+                        list.add(entry.composite
+                                ? new LazyComposite(context, LazyComposite.this, entry.name, entry.key, i)
+                                : new Leaf(entry.name));
+                    }
+                    return list;
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            ArrayList<CompositePattern.Component> list = null;
+            try {
+                list = get();
+            } catch (InterruptedException | ExecutionException e) {
+                // 加载失败，下一次访问时重试
+            }
+            synchronized (LazyComposite.this) {
+                if (loading != this) {
+                    return;
+                }
+                loading = null;
+                if (list == null) {
+                    return;
+                }
+                children = list;
+            }
+            context.onLoaded(LazyComposite.this, list.size());
+        }
+    }
+}
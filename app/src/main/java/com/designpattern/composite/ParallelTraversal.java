@@ -0,0 +1,226 @@
+package com.designpattern.composite;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 组合树的并行遍历。
+ * <p>
+ * Composite.operation() 在一个线程里递归遍历整棵树，节点有几百万个、每个节点的工作又是 CPU 密集时很慢。
+ * 并行遍历的做法：
+ * 1。每个任务用显式的栈遍历自己的子树，栈里待处理的都是完整的子树（以树枝节点为边界）。
+ * 2。一个任务每处理 threshold 个节点，如果栈里还有多个待处理的子树，就把栈底的一半拆成新任务 fork 出去，
+ * 空闲的线程通过 ForkJoinPool 的工作窃取拿走这些任务，所以宽树、深树和偏斜的树都能分摊到多个线程。
+ * 3。每个节点的结果通过 Combiner 合并，合并规则可以配置；合并顺序不固定，所以 Combiner 需要满足结合律和交换律。
+ * 4。每次遍历有自己的 Cancellation，调用它的 cancel() 后，这次遍历的所有任务在处理下一个节点之前停止，返回已经合并的部分结果；
+ * 同一个 ParallelTraversal 可以同时进行多次遍历，互不影响。
+ * <p>
+ * ForkJoinPool 需要 API 21，低版本退回到单线程遍历。
+ */
+public class ParallelTraversal<N, R> {
+
+    /**
+     * 每个节点的工作
+     */
+    public interface NodeVisitor<N, R> {
+        R visit(N node);
+    }
+
+    /**
+     * 合并两个结果，需要满足结合律和交换律
+     */
+    public interface Combiner<R> {
+        R combine(R a, R b);
+    }
+
+    /**
+     * 一次遍历的取消标记，可以在 visitor 里调用 cancel()，例如找到目标节点之后
+     */
+    public static final class Cancellation {
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final TreeAdapter<N> adapter;
+    private final NodeVisitor<N, R> visitor;
+    private final Combiner<R> combiner;
+    private final R identity;
+    private final int threshold;
+
+    /**
+     * @param identity  合并的初始值，combine(identity, r) == r
+     * @param threshold 一个任务至少处理的节点个数，之后才会拆分
+     */
+    public ParallelTraversal(TreeAdapter<N> adapter, NodeVisitor<N, R> visitor, Combiner<R> combiner,
+                             R identity, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+        this.adapter = adapter;
+        this.visitor = visitor;
+        this.combiner = combiner;
+        this.identity = identity;
+        this.threshold = threshold;
+    }
+
+    public ParallelTraversal(TreeAdapter<N> adapter, NodeVisitor<N, R> visitor, Combiner<R> combiner, R identity) {
+        this(adapter, visitor, combiner, identity, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * 并行遍历整棵树
+     */
+    public R invoke(N root) {
+        return invoke(root, new Cancellation());
+    }
+
+    /**
+     * 并行遍历整棵树，cancellation 被取消后停止
+     */
+    public R invoke(N root, Cancellation cancellation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return invokeParallel(root, cancellation);
+        }
+        return traverse(root, cancellation);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    R invokeParallel(N root, Cancellation cancellation) {
+        Object[] stack = new Object[16];
+        stack[0] = root;
+        return PoolHolder.POOL.invoke(new TraversalTask(stack, 1, cancellation));
+    }
+
+    /**
+     * 单线程遍历整棵树，不递归
+     */
+    public R invokeSequential(N root) {
+        return invokeSequential(root, new Cancellation());
+    }
+
+    public R invokeSequential(N root, Cancellation cancellation) {
+        return traverse(root, cancellation);
+    }
+
+    @SuppressWarnings("unchecked")
+    private R traverse(N root, Cancellation cancellation) {
+        R result = identity;
+        Object[] stack = new Object[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0 && !cancellation.cancelled) {
+            N node = (N) stack[--top];
+            stack[top] = null;
+            result = combiner.combine(result, visitor.visit(node));
+            int count = adapter.getChildCount(node);
+            if (top + count > stack.length) {
+                stack = grow(stack, top + count);
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                stack[top++] = adapter.getChild(node, i);
+            }
+        }
+        return result;
+    }
+
+    private static Object[] grow(Object[] stack, int capacity) {
+        Object[] grown = new Object[Math.max(capacity, stack.length * 2)];
+        System.arraycopy(stack, 0, grown, 0, stack.length);
+        return grown;
+    }
+
+    /**
+     * 静态内部类持有线程池，第一次并行遍历时才创建
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * 遍历栈里的所有子树，每处理 threshold 个节点就把栈底的一半子树拆分出去
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private class TraversalTask extends RecursiveTask<R> {
+
+        private static final long serialVersionUID = 4416253873526105231L;
+
+        private final Cancellation cancellation;
+        private Object[] stack;
+        private int top;
+
+        TraversalTask(Object[] stack, int top, Cancellation cancellation) {
+            this.stack = stack;
+            this.top = top;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected R compute() {
+            R result = identity;
+            ArrayList<TraversalTask> forked = null;
+            while (true) {
+                int processed = 0;
+                while (top > 0 && !cancellation.cancelled) {
+                    N node = (N) stack[--top];
+                    stack[top] = null;
+                    result = combiner.combine(result, visitor.visit(node));
+                    int count = adapter.getChildCount(node);
+                    if (top + count > stack.length) {
+                        stack = grow(stack, top + count);
+                    }
+                    for (int i = count - 1; i >= 0; i--) {
+                        stack[top++] = adapter.getChild(node, i);
+                    }
+                    if (++processed >= threshold && top > 1) {
+                        // 栈底的子树离当前位置最远，通常也最大，拆分出去
+                        int half = top >> 1;
+                        Object[] split = new Object[Math.max(16, half * 2)];
+                        System.arraycopy(stack, 0, split, 0, half);
+                        System.arraycopy(stack, half, stack, 0, top - half);
+                        Arrays.fill(stack, top - half, top, null);
+                        top -= half;
+                        TraversalTask task = new TraversalTask(split, half, cancellation);
+                        task.fork();
+                        if (forked == null) {
+                            forked = new ArrayList<>();
+                        }
+                        forked.add(task);
+                        processed = 0;
+                    }
+                }
+                // 还没有被其它线程窃取的任务收回来，在这个循环里接着处理；
+                // 直接 join 会在当前线程里嵌套执行它，一条长链拆出的任务一层套一层，会栈溢出
+                TraversalTask reclaimed = null;
+                while (forked != null && !forked.isEmpty()) {
+                    TraversalTask task = forked.remove(forked.size() - 1);
+                    if (task.tryUnfork()) {
+                        reclaimed = task;
+                        break;
+                    }
+                    result = combiner.combine(result, task.join());
+                }
+                if (reclaimed == null) {
+                    return result;
+                }
+                stack = reclaimed.stack;
+                top = reclaimed.top;
+            }
+        }
+    }
+}
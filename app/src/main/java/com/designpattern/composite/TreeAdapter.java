@@ -0,0 +1,65 @@
+package com.designpattern.composite;
+
+/**
+ * 树的访问方式：遍历、流等工具通过它访问子节点，所以同时适用于透明式的 Component 和安全式的 ComponentSecurity。
+ */
+public interface TreeAdapter<N> {
+
+    int getChildCount(N node);
+
+    N getChild(N node, int index);
+
+    /**
+     * 是否是树枝：没有子节点的树枝（空的 Composite）也是树枝，不是树叶
+     */
+    boolean isComposite(N node);
+
+    /**
+     * 透明式：所有构件都有 getChildCount/getChild
+     */
+    TreeAdapter<CompositePattern.Component> COMPONENT = new TreeAdapter<CompositePattern.Component>() {
+        @Override
+        public int getChildCount(CompositePattern.Component node) {
+            return node.getChildCount();
+        }
+
+        @Override
+        public CompositePattern.Component getChild(CompositePattern.Component node, int index) {
+            return node.getChild(index);
+        }
+
+        /**
+         * 透明式的构件都有 getChildCount，只能按类型区分：只有已知的树枝类型是树枝，
+         * 其余的（包括调用方自己实现的 Component）都当作树叶
+         */
+        @Override
+        public boolean isComposite(CompositePattern.Component node) {
+            if (node instanceof ConcurrentComposite.Node) {
+                return ((ConcurrentComposite.Node) node).isComposite();
+            }
+            return node instanceof CompositePattern.Composite || node instanceof LazyComposite
+                    || node instanceof AggregateComposite.Branch || node instanceof IndexedComposite.Branch;
+        }
+    };
+
+    /**
+     * 安全式：只有树枝构件 CompositeSecurity 有子节点
+     */
+    TreeAdapter<CompositePattern.ComponentSecurity> COMPONENT_SECURITY = new TreeAdapter<CompositePattern.ComponentSecurity>() {
+        @Override
+        public int getChildCount(CompositePattern.ComponentSecurity node) {
+            return node instanceof CompositePattern.CompositeSecurity
+                    ? ((CompositePattern.CompositeSecurity<?>) node).getChildCount() : 0;
+        }
+
+        @Override
+        public CompositePattern.ComponentSecurity getChild(CompositePattern.ComponentSecurity node, int index) {
+            return ((CompositePattern.CompositeSecurity<?>) node).getChild(index);
+        }
+
+        @Override
+        public boolean isComposite(CompositePattern.ComponentSecurity node) {
+            return node instanceof CompositePattern.CompositeSecurity;
+        }
+    };
+}
@@ -0,0 +1,216 @@
+package com.designpattern.composite;
+
+import java.util.Arrays;
+
+/**
+ * 不递归、遍历时不分配对象的树游标。
+ * <p>
+ * Composite.operation() 递归遍历，每个节点都会创建一个 ArrayList 的迭代器，遇到很深的树（例如导入的长链）还会栈溢出。
+ * 游标使用显式的栈或者队列遍历：
+ * 1。通过 TreeAdapter 的 getChildCount/getChild 访问子节点，不创建迭代器，同时适用于 Component 和 ComponentSecurity。
+ * 2。栈和队列只在容量不够时扩容，调用 reset 后可以用同一个游标遍历下一棵树，多次遍历不会再分配。
+ * <p>
+ * 用法：
+ * <pre>
+ * cursor.reset(root);
+ * for (N node = cursor.next(); node != null; node = cursor.next()) { ... }
+ * </pre>
+ * 游标不是线程安全的，遍历过程中不能修改树。
+ */
+public abstract class TreeCursor<N> {
+
+    final TreeAdapter<N> adapter;
+
+    TreeCursor(TreeAdapter<N> adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * 从 root 开始新的遍历
+     */
+    public abstract TreeCursor<N> reset(N root);
+
+    /**
+     * @return 下一个节点，遍历结束时返回null
+     */
+    public abstract N next();
+
+    static Object[] grow(Object[] array, int capacity) {
+        return Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    /**
+     * 先序遍历：父节点在子节点之前
+     * 子节点在父节点被返回之后、取下一个节点时才入栈，所以可以调用 skipChildren 跳过刚返回的节点的整棵子树。
+     */
+    public static class PreOrder<N> extends TreeCursor<N> {
+
+        private Object[] stack = new Object[16];
+        private int top;
+        private N last;
+        private boolean skip;
+
+        public PreOrder(TreeAdapter<N> adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public PreOrder<N> reset(N root) {
+            Arrays.fill(stack, 0, top, null);
+            top = 0;
+            last = null;
+            skip = false;
+            if (root != null) {
+                stack[top++] = root;
+            }
+            return this;
+        }
+
+        /**
+         * 不再遍历上一次 next() 返回的节点的子节点
+         */
+        public void skipChildren() {
+            skip = true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public N next() {
+            if (last != null && !skip) {
+                int count = adapter.getChildCount(last);
+                if (top + count > stack.length) {
+                    stack = grow(stack, top + count);
+                }
+                for (int i = count - 1; i >= 0; i--) {
+                    stack[top++] = adapter.getChild(last, i);
+                }
+            }
+            skip = false;
+            if (top == 0) {
+                last = null;
+                return null;
+            }
+            last = (N) stack[--top];
+            stack[top] = null;
+            return last;
+        }
+    }
+
+    /**
+     * 后序遍历：子节点在父节点之前
+     * 栈里同时记录每个节点下一个要访问的子节点序号。
+     */
+    public static class PostOrder<N> extends TreeCursor<N> {
+
+        private Object[] stack = new Object[16];
+        private int[] childIndex = new int[16];
+        private int top;
+
+        public PostOrder(TreeAdapter<N> adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public PostOrder<N> reset(N root) {
+            Arrays.fill(stack, 0, top, null);
+            top = 0;
+            if (root != null) {
+                push(root);
+            }
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public N next() {
+            while (top > 0) {
+                N node = (N) stack[top - 1];
+                int index = childIndex[top - 1];
+                if (index < adapter.getChildCount(node)) {
+                    childIndex[top - 1] = index + 1;
+                    push(adapter.getChild(node, index));
+                } else {
+                    stack[--top] = null;
+                    return node;
+                }
+            }
+            return null;
+        }
+
+        private void push(N node) {
+            if (top == stack.length) {
+                stack = grow(stack, top + 1);
+                childIndex = Arrays.copyOf(childIndex, stack.length);
+            }
+            stack[top] = node;
+            childIndex[top] = 0;
+            top++;
+        }
+    }
+
+    /**
+     * 层序遍历：按层从上到下，同一层从左到右
+     * 使用环形队列。
+     */
+    public static class BreadthFirst<N> extends TreeCursor<N> {
+
+        private Object[] queue = new Object[16];
+        private int head;
+        private int size;
+
+        public BreadthFirst(TreeAdapter<N> adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public BreadthFirst<N> reset(N root) {
+            Arrays.fill(queue, null);
+            head = 0;
+            size = 0;
+            if (root != null) {
+                queue[0] = root;
+                size = 1;
+            }
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public N next() {
+            if (size == 0) {
+                return null;
+            }
+            N node = (N) queue[head];
+            queue[head] = null;
+            head = (head + 1) & (queue.length - 1);
+            size--;
+            int count = adapter.getChildCount(node);
+            if (size + count > queue.length) {
+                resize(size + count);
+            }
+            int mask = queue.length - 1;
+            for (int i = 0; i < count; i++) {
+                queue[(head + size) & mask] = adapter.getChild(node, i);
+                size++;
+            }
+            return node;
+        }
+
+        /**
+         * 容量保持为 2 的幂，按顺序搬到新数组的开头
+         */
+        private void resize(int required) {
+            int capacity = queue.length;
+            while (capacity < required) {
+                capacity <<= 1;
+            }
+            Object[] grown = new Object[capacity];
+            int mask = queue.length - 1;
+            for (int i = 0; i < size; i++) {
+                grown[i] = queue[(head + i) & mask];
+            }
+            queue = grown;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.designpattern.composite;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 组合树的 Spliterator：按先序遍历所有节点，可以用 Stream 查询，例如“名字以 X 开头的树叶”。
+ * <p>
+ * 1。待遍历的部分是一个栈，栈里是完整的子树，或者已经单独拆出来的节点。
+ * 2。拆分时按子树的大小分：从先遍历的一端累加子树大小，直到约一半；某棵子树超过一半时先把它展开成根节点和子树，
+ * 所以偏斜的树（一个分支占了大部分节点）也能均匀拆分。
+ * 3。子树大小在需要时（拆分、estimateSize）才计算，只遍历栈里的那棵子树，结果记在当前 Spliterator 里，不加锁；
+ * 拆分时栈里每个位置已经算出的大小一起交给新的 Spliterator。树叶不用遍历，大小是 1。
+ * 4。可以传入 keep：keep 拒绝一个节点时跳过它的整棵子树。
+ * <p>
+ * 不带 keep 的并行流是 SIZED 和 SUBSIZED 的；带 keep 时实际遍历的节点个数事先不知道，不报告 SIZED，
+ * estimateSize 返回不考虑 keep 的上限。顺序流不计算子树大小。遍历过程中不能修改树。
+ * 需要 API 24。
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class TreeSpliterator<N> implements Spliterator<N> {
+
+    private final TreeAdapter<N> adapter;
+    private final Predicate<? super N> keep;
+    private final boolean sized;
+
+    /**
+     * 栈顶是下一个要遍历的；single 为 true 的是已经通过 keep、只遍历它自己的节点。
+     * sizes 是每个位置的子树大小，0 表示还没有计算；拆分时和栈一起交给新的 Spliterator
+     */
+    private Object[] stack;
+    private boolean[] single;
+    private int[] sizes;
+    private int top;
+    /**
+     * sized 时剩余的节点个数，-1 表示还没有计算
+     */
+    private long remaining;
+    /**
+     * 这个 Spliterator 遍历过的树枝的子树大小，只在它自己的线程里使用，不和拆分出来的 Spliterator 共享
+     */
+    private IdentityHashMap<N, Integer> memo;
+
+    /**
+     * @param keep  为null时遍历所有节点；否则 keep 拒绝一个节点时跳过它的整棵子树
+     * @param sized 是否报告精确的大小（SIZED），有 keep 时忽略
+     */
+    public TreeSpliterator(TreeAdapter<N> adapter, N root, Predicate<? super N> keep, boolean sized) {
+        this.adapter = adapter;
+        this.keep = keep;
+        this.sized = sized && keep == null;
+        stack = new Object[16];
+        single = new boolean[16];
+        sizes = new int[16];
+        stack[0] = root;
+        top = 1;
+        remaining = -1;
+    }
+
+    private TreeSpliterator(TreeSpliterator<N> parent, Object[] stack, boolean[] single, int[] sizes, int top,
+                            long remaining) {
+        this.adapter = parent.adapter;
+        this.keep = parent.keep;
+        this.sized = parent.sized;
+        this.stack = stack;
+        this.single = single;
+        this.sizes = sizes;
+        this.top = top;
+        this.remaining = remaining;
+    }
+
+    /**
+     * 遍历所有节点的流
+     */
+    public static <N> Stream<N> stream(TreeAdapter<N> adapter, N root, boolean parallel) {
+        return StreamSupport.stream(new TreeSpliterator<>(adapter, root, null, parallel), parallel);
+    }
+
+    /**
+     * keep 拒绝一个节点时跳过它的整棵子树的流
+     */
+    public static <N> Stream<N> prunedStream(TreeAdapter<N> adapter, N root, Predicate<? super N> keep,
+                                             boolean parallel) {
+        return StreamSupport.stream(new TreeSpliterator<>(adapter, root, keep, false), parallel);
+    }
+
+    /**
+     * 只有树叶的流，空的树枝不是树叶
+     */
+    public static <N> Stream<N> leafStream(final TreeAdapter<N> adapter, N root, boolean parallel) {
+        return stream(adapter, root, parallel).filter(new Predicate<N>() {
+            @Override
+            public boolean test(N node) {
+                return !adapter.isComposite(node);
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer<? super N> action) {
+        while (top > 0) {
+            N node = (N) stack[--top];
+            stack[top] = null;
+            if (!single[top]) {
+                if (keep != null && !keep.test(node)) {
+                    continue;
+                }
+                pushChildren(node);
+            }
+            if (remaining > 0) {
+                remaining--;
+            }
+            action.accept(node);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super N> action) {
+        while (tryAdvance(action)) {
+            // tryAdvance 已经处理了节点
+        }
+    }
+
+    private void pushChildren(N node) {
+        int count = adapter.getChildCount(node);
+        ensureCapacity(top + count);
+        for (int i = count - 1; i >= 0; i--) {
+            stack[top] = adapter.getChild(node, i);
+            single[top] = false;
+            sizes[top++] = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > stack.length) {
+            int length = Math.max(capacity, stack.length * 2);
+            stack = Arrays.copyOf(stack, length);
+            single = Arrays.copyOf(single, length);
+            sizes = Arrays.copyOf(sizes, length);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int sizeAt(int i) {
+        if (sizes[i] == 0) {
+            sizes[i] = single[i] ? 1 : sizeOf((N) stack[i]);
+        }
+        return sizes[i];
+    }
+
+    /**
+     * 后序遍历 node 的子树，子节点的大小先算出来；已经算过的树枝直接跳过
+     */
+    @SuppressWarnings("unchecked")
+    private int sizeOf(N node) {
+        if (!adapter.isComposite(node)) {
+            return 1;
+        }
+        if (memo == null) {
+            memo = new IdentityHashMap<>();
+        }
+        Integer known = memo.get(node);
+        if (known != null) {
+            return known;
+        }
+        Object[] path = new Object[16];
+        int[] next = new int[16];
+        int depth = 0;
+        path[depth] = node;
+        next[depth++] = 0;
+        while (depth > 0) {
+            N current = (N) path[depth - 1];
+            int index = next[depth - 1];
+            int count = adapter.getChildCount(current);
+            if (index < count) {
+                next[depth - 1] = index + 1;
+                N child = adapter.getChild(current, index);
+                if (adapter.isComposite(child) && !memo.containsKey(child)) {
+                    if (depth == path.length) {
+                        path = Arrays.copyOf(path, depth * 2);
+                        next = Arrays.copyOf(next, depth * 2);
+                    }
+                    path[depth] = child;
+                    next[depth++] = 0;
+                }
+                continue;
+            }
+            int size = 1;
+            for (int i = 0; i < count; i++) {
+                N child = adapter.getChild(current, i);
+                size += adapter.isComposite(child) ? memo.get(child) : 1;
+            }
+            memo.put(current, size);
+            path[--depth] = null;
+        }
+        return memo.get(node);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Spliterator<N> trySplit() {
+        if (top == 0) {
+            return null;
+        }
+        long total = 0;
+        for (int i = 0; i < top; i++) {
+            total += sizeAt(i);
+        }
+        // 超过一半的子树先展开成根节点和它的子树
+        while (true) {
+            int largest = -1;
+            for (int i = 0; i < top; i++) {
+                if (!single[i] && (long) sizeAt(i) * 2 > total) {
+                    largest = i;
+                    break;
+                }
+            }
+            if (largest == -1) {
+                break;
+            }
+            N node = (N) stack[largest];
+            if (keep != null && !keep.test(node)) {
+                total -= sizeAt(largest);
+                System.arraycopy(stack, largest + 1, stack, largest, top - largest - 1);
+                System.arraycopy(single, largest + 1, single, largest, top - largest - 1);
+                System.arraycopy(sizes, largest + 1, sizes, largest, top - largest - 1);
+                stack[--top] = null;
+                continue;
+            }
+            int count = adapter.getChildCount(node);
+            if (count == 0) {
+                break;
+            }
+            // 栈的下标越小越晚遍历：子节点倒序放在 largest 处，根节点在它们上面
+            ensureCapacity(top + count);
+            System.arraycopy(stack, largest + 1, stack, largest + 1 + count, top - largest - 1);
+            System.arraycopy(single, largest + 1, single, largest + 1 + count, top - largest - 1);
+            System.arraycopy(sizes, largest + 1, sizes, largest + 1 + count, top - largest - 1);
+            for (int i = 0; i < count; i++) {
+                stack[largest + i] = adapter.getChild(node, count - 1 - i);
+                single[largest + i] = false;
+                // 子树大小在 sizeOf(node) 时已经记下来了
+                sizes[largest + i] = 0;
+            }
+            stack[largest + count] = node;
+            single[largest + count] = true;
+            sizes[largest + count] = 1;
+            top += count;
+        }
+        if (top < 2) {
+            return null;
+        }
+        // 从栈顶（先遍历的一端）累加到约一半，作为前半部分拆出去，至少留一个给自己
+        long prefix = 0;
+        int from = top;
+        while (from > 1 && prefix * 2 < total) {
+            from--;
+            prefix += sizeAt(from);
+        }
+        int count = top - from;
+        Object[] splitStack = new Object[Math.max(16, count * 2)];
+        boolean[] splitSingle = new boolean[splitStack.length];
+        int[] splitSizes = new int[splitStack.length];
+        System.arraycopy(stack, from, splitStack, 0, count);
+        System.arraycopy(single, from, splitSingle, 0, count);
+        System.arraycopy(sizes, from, splitSizes, 0, count);
+        Arrays.fill(stack, from, top, null);
+        top = from;
+        if (sized) {
+            remaining = total - prefix;
+        }
+        return new TreeSpliterator<>(this, splitStack, splitSingle, splitSizes, count, sized ? prefix : -1);
+    }
+
+    /**
+     * SIZED 时是精确的剩余个数；有 keep 时是待遍历子树大小的和，是一个上限
+     */
+    @Override
+    public long estimateSize() {
+        if (sized && remaining >= 0) {
+            return remaining;
+        }
+        long estimate = 0;
+        for (int i = 0; i < top; i++) {
+            estimate += sizeAt(i);
+        }
+        if (sized) {
+            remaining = estimate;
+        }
+        return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return sized ? ORDERED | NONNULL | SIZED | SUBSIZED : ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,96 @@
+package com.designpattern.decorator;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步的装饰者：operation() 立即返回 CompletableFuture，调用线程不会被慢的装饰者阻塞。
+ * <p>
+ * 1。被装饰的构件和装饰者都实现 DecoratorPattern.AsyncComponent，一层套一层的方式和同步的装饰者一样。
+ * 2。装饰者的附加功能（addedFunction）和被装饰者的调用互不依赖时，两者同时在 executor 上执行，
+ * 返回的 future 在两者都完成后完成；附加功能依赖被装饰者的结果时，用 sequential 让它在被装饰者完成后执行。
+ * 3。executor 必须显式指定。装饰者里通常是 I/O，ForkJoinPool.commonPool() 只有 CPU 核数减一个线程，
+ * 被阻塞时同一个进程里的并行流和其它 CompletableFuture 都会变慢，所以不把它作为默认值；I/O 较多时给一个线程较多的专用线程池。
+ * 4。wrap 把已有的同步构件放到 executor 上执行，变成异步构件。
+ * <p>
+ * 任何一层失败时，返回的 future 以这个异常完成。需要 API 24。
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class AsyncDecorator implements DecoratorPattern.AsyncComponent {
+
+    protected final DecoratorPattern.AsyncComponent mComponent;
+    private final Executor executor;
+    private final boolean sequential;
+
+    /**
+     * 附加功能和被装饰者同时执行
+     */
+    public AsyncDecorator(DecoratorPattern.AsyncComponent component, Executor executor) {
+        this(component, executor, false);
+    }
+
+    /**
+     * @param sequential 为 true 时附加功能在被装饰者完成后执行，和同步的 ConcreteDecorator 顺序一样
+     */
+    public AsyncDecorator(DecoratorPattern.AsyncComponent component, Executor executor, boolean sequential) {
+        if (component == null || executor == null) {
+            throw new NullPointerException("component == null || executor == null");
+        }
+        this.mComponent = component;
+        this.executor = executor;
+        this.sequential = sequential;
+    }
+
+    /**
+     * 把同步的构件放到 executor 上执行
+     */
+    public static DecoratorPattern.AsyncComponent wrap(final DecoratorPattern.Component component,
+                                                       final Executor executor) {
+        return new DecoratorPattern.AsyncComponent() {
+            @Override
+            public CompletableFuture<Void> operation() {
+                return CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        component.operation();
+                    }
+                }, executor);
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Void> operation() {
+        CompletableFuture<Void> wrapped;
+        try {
+            wrapped = mComponent.operation();
+        } catch (RuntimeException e) {
+            // 被装饰者同步抛出的异常也通过 future 返回
+            wrapped = new CompletableFuture<>();
+            wrapped.completeExceptionally(e);
+        }
+        Runnable added = new Runnable() {
+            @Override
+            public void run() {
+                addedFunction();
+            }
+        };
+        if (sequential) {
+            return wrapped.thenRunAsync(added, executor);
+        }
+        return CompletableFuture.allOf(wrapped, CompletableFuture.runAsync(added, executor));
+    }
+
+    /**
+     * 附加功能，在 executor 的线程上执行；默认什么也不做
+     */
+    public void addedFunction() {
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+}
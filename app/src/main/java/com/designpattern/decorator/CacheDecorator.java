@@ -0,0 +1,322 @@
+package com.designpattern.decorator;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存装饰者：记住被装饰的操作的结果，同一个 key 再次调用时直接返回。
+ * <p>
+ * DecoratorPattern.Component.operation() 没有参数也没有返回值，没有可以缓存的东西，
+ * 所以这里的构件是 DecoratorPattern.Operation：按 key 计算一个结果。CacheDecorator 自己也是 Operation，可以和其它装饰者继续嵌套。
+ * 1。条目数有上限，超过时淘汰最久没有访问的条目（LRU）。
+ * 2。可以设置写入后过期（expireAfterWrite）和访问后过期（expireAfterAccess），过期的条目在访问或写入时清理。
+ * 3。多个线程同时未命中同一个 key 时只计算一次：第一个线程执行计算，其它线程等待同一个 FutureTask。
+ * 4。统计命中率、计算次数和平均计算耗时。
+ * <p>
+ * 计算返回null时结果不缓存；计算抛出异常时也不缓存，等待同一个计算的线程都收到这个异常。
+ */
+public class CacheDecorator<K, V> implements DecoratorPattern.Operation<K, V> {
+
+    /**
+     * 时间来源，单位纳秒；测试时可以换成手动前进的时钟
+     */
+    interface Ticker {
+        long read();
+    }
+
+    static final Ticker SYSTEM_TICKER = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    private static class Entry<V> {
+        final V value;
+        final long writeNanos;
+        long accessNanos;
+
+        Entry(V value, long now) {
+            this.value = value;
+            this.writeNanos = now;
+            this.accessNanos = now;
+        }
+    }
+
+    private final DecoratorPattern.Operation<K, V> mOperation;
+    private final long maximumSize;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final Ticker ticker;
+
+    /**
+     * 按访问顺序排列，最久没有访问的在最前面；和 loading 一起由 this 保护
+     */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<K, FutureTask<V>> loading = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadSuccesses = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private CacheDecorator(Builder builder, DecoratorPattern.Operation<K, V> operation) {
+        this.mOperation = operation;
+        this.maximumSize = builder.maximumSize;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.ticker = builder.ticker;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public V operation(final K key) throws Exception {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        FutureTask<V> task;
+        boolean owner = false;
+        synchronized (this) {
+            long now = ticker.read();
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (!isExpired(entry, now)) {
+                    entry.accessNanos = now;
+                    hits.incrementAndGet();
+                    return entry.value;
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            task = loading.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<V>() {
+                    @Override
+                    public V call() throws Exception {
+                        return mOperation.operation(key);
+                    }
+                });
+                loading.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            load(key, task);
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 在未命中的第一个线程里执行计算，然后把结果放进缓存；
+     * 计算期间 key 被 invalidate 时 loading 里已经不是这个 task，结果只返回给已经在等待的线程，不放进缓存
+     */
+    private void load(K key, FutureTask<V> task) throws InterruptedException {
+        long start = ticker.read();
+        task.run();
+        long now = ticker.read();
+        loadNanos.addAndGet(now - start);
+        V value = null;
+        boolean success;
+        try {
+            value = task.get();
+            success = true;
+        } catch (ExecutionException e) {
+            success = false;
+        }
+        synchronized (this) {
+            if (loading.get(key) == task) {
+                loading.remove(key);
+                if (success && value != null) {
+                    entries.put(key, new Entry<>(value, now));
+                    evict(now);
+                }
+            }
+        }
+        if (success) {
+            loadSuccesses.incrementAndGet();
+        } else {
+            loadFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * 先清理最前面已经过期的条目，再按 LRU 淘汰到不超过上限
+     */
+    private void evict(long now) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<V> entry = iterator.next();
+            boolean over = maximumSize > 0 && entries.size() > maximumSize;
+            if (!over && !isExpired(entry, now)) {
+                // 按访问顺序排列，后面的条目访问时间更晚；写入后过期的条目可能在后面，留到访问或 cleanUp 时清理
+                break;
+            }
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return (expireAfterWriteNanos > 0 && now - entry.writeNanos >= expireAfterWriteNanos)
+                || (expireAfterAccessNanos > 0 && now - entry.accessNanos >= expireAfterAccessNanos);
+    }
+
+    /**
+     * 清理所有过期的条目
+     */
+    public synchronized void cleanUp() {
+        long now = ticker.read();
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next(), now)) {
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 同时丢掉正在计算的结果：之后的调用重新计算，不会等待或者拿到失效前开始的计算
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+        loading.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        loading.clear();
+    }
+
+    /**
+     * 当前的条目数，可能包括还没有清理的过期条目
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), loadSuccesses.get(), loadFailures.get(), loadNanos.get(),
+                evictions.get());
+    }
+
+    /**
+     * 不可变的统计快照
+     */
+    public static class Stats {
+        public final long hitCount;
+        public final long missCount;
+        public final long loadSuccessCount;
+        public final long loadFailureCount;
+        public final long totalLoadNanos;
+        public final long evictionCount;
+
+        Stats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadNanos,
+              long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadSuccessCount = loadSuccessCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadNanos = totalLoadNanos;
+            this.evictionCount = evictionCount;
+        }
+
+        /**
+         * 没有请求时返回1
+         */
+        public double hitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        public long averageLoadNanos() {
+            long loads = loadSuccessCount + loadFailureCount;
+            return loads == 0 ? 0 : totalLoadNanos / loads;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hitRate=" + hitRate() + ", hits=" + hitCount + ", misses=" + missCount
+                    + ", loads=" + loadSuccessCount + ", loadFailures=" + loadFailureCount
+                    + ", averageLoadNanos=" + averageLoadNanos() + ", evictions=" + evictionCount + "}";
+        }
+    }
+
+    public static class Builder {
+        private long maximumSize;
+        private long expireAfterWriteNanos;
+        private long expireAfterAccessNanos;
+        private Ticker ticker = SYSTEM_TICKER;
+
+        private Builder() {
+        }
+
+        /**
+         * 条目数上限，0 表示不限制
+         */
+        public Builder maximumSize(long maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * 写入后经过 duration 过期，0 表示不过期
+         */
+        public Builder expireAfterWrite(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration must not be negative: " + duration);
+            }
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 最后一次访问后经过 duration 过期，0 表示不过期
+         */
+        public Builder expireAfterAccess(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration must not be negative: " + duration);
+            }
+            this.expireAfterAccessNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        Builder ticker(Ticker ticker) {
+            if (ticker == null) {
+                throw new NullPointerException("ticker == null");
+            }
+            this.ticker = ticker;
+            return this;
+        }
+
+        public <K, V> CacheDecorator<K, V> build(DecoratorPattern.Operation<K, V> operation) {
+            return new CacheDecorator<>(this, operation);
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package com.designpattern.decorator;
 
+import android.os.Build;
+import android.support.annotation.RequiresApi;
 import android.util.Log;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * 装饰者模式：指在不改变现有对象结构的情况下，动态地给该对象增加一些职责（即增加其额外功能）的模式，它属于对象结构型模式。
  * <p>
@@ -10,6 +19,10 @@ import android.util.Log;
  * 2。具体构件（Concrete Component）角色：实现抽象构件，通过装饰角色为其添加一些职责。（被包装的角色）
  * 3。抽象装饰（Decorator）角色：继承抽象构件，并包含具体构件（被装饰者）的实例，可以通过其子类扩展具体构件的功能。
  * 4。具体装饰（ConcreteDecorator）角色：实现抽象装饰的相关方法，并给具体构件对象添加附加的责任。
+ * <p>
+ * 装饰的层数很多时，可以用 DecoratorPipeline 把嵌套的调用展开成扁平的调用，两者的耗时对比见 benchmark 模块（JMH）。
+ * 相同的计算经常重复时，可以用 CacheDecorator 记住 Operation 的结果。
+ * 装饰者里有慢的 I/O 时，可以用 AsyncDecorator 组成不阻塞调用线程的异步装饰链。
  */
 public class DecoratorPattern {
 
@@ -22,6 +35,21 @@ public class DecoratorPattern {
         void operation();
     }
 
+    /**
+     * 有返回值的抽象构件，按 key 计算一个结果
+     */
+    interface Operation<K, V> {
+        V operation(K key) throws Exception;
+    }
+
+    /**
+     * 异步的抽象构件，立即返回，完成时 future 完成
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    interface AsyncComponent {
+        CompletableFuture<Void> operation();
+    }
+
     /**
      * 具体构建
      */
@@ -71,5 +99,128 @@ public class DecoratorPattern {
         }
     }
 
+    /**
+     * 缓存装饰者：8 个线程同时请求同一个 key 只计算一次，超过上限时淘汰，过期后重新计算
+     */
+    public void cacheDecoratorTest() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        final CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .maximumSize(2)
+                .expireAfterWrite(200, TimeUnit.MILLISECONDS)
+                .build(new Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        computations.incrementAndGet();
+                        Thread.sleep(50);
+                        return "value" + key;
+                    }
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        cache.operation(1);
+                    } catch (Exception e) {
+                        Log.d(TAG, "cacheDecoratorTest " + e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        executor.shutdown();
+        Log.d(TAG, "8 concurrent misses , computations = " + computations.get());
+
+        cache.operation(1);
+        cache.operation(2);
+        cache.operation(3);
+        Log.d(TAG, "maximumSize 2 , size = " + cache.size() + " , computations = " + computations.get());
+
+        Thread.sleep(250);
+        cache.operation(3);
+        Log.d(TAG, "after expiry , computations = " + computations.get());
+        Log.d(TAG, cache.stats().toString());
+    }
+
+    /**
+     * 4 层装饰者，构件和每个附加功能都等待 10ms（模拟 I/O），同时发出 32 个请求，两种方式都只有 8 个线程：
+     * 同步的装饰链在 8 个调用线程上执行，异步的装饰链由调用线程一次发出，在 8 个线程的 executor 上执行。
+     * 线程一样多时总耗时接近（都受线程数限制）；异步的好处是调用线程不被阻塞，而且各层的附加功能同时执行，单个请求的延迟更短
+     */
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public void asyncDecoratorBenchmark() throws Exception {
+        final int depth = 4;
+        final int requests = 32;
+        final int threads = 8;
+        final Component io = new Component() {
+            @Override
+            public void operation() {
+                sleep(10);
+            }
+        };
+
+        Component sync = io;
+        for (int i = 0; i < depth; i++) {
+            sync = new ConcreteDecorator(sync) {
+                @Override
+                public void addedFunction() {
+                    sleep(10);
+                }
+            };
+        }
+        final Component syncChain = sync;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(requests);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            callers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    syncChain.operation();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long syncMillis = (System.nanoTime() - start) / 1000000;
+        callers.shutdown();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AsyncComponent async = AsyncDecorator.wrap(io, executor);
+        for (int i = 0; i < depth; i++) {
+            async = new AsyncDecorator(async, executor, false) {
+                @Override
+                public void addedFunction() {
+                    sleep(10);
+                }
+            };
+        }
+        start = System.nanoTime();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+        for (int i = 0; i < requests; i++) {
+            futures[i] = async.operation();
+        }
+        long submitMicros = (System.nanoTime() - start) / 1000;
+        CompletableFuture.allOf(futures).get();
+        long asyncMillis = (System.nanoTime() - start) / 1000000;
+        executor.shutdown();
+
+        Log.d(TAG, requests + " requests , " + depth + " decorators , " + threads + " threads : sync " + syncMillis + " ms , async "
+                + asyncMillis + " ms (caller blocked " + submitMicros + " us)");
+    }
 
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
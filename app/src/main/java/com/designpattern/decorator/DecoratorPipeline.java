@@ -0,0 +1,129 @@
+package com.designpattern.decorator;
+
+import java.util.ArrayList;
+
+/**
+ * 把多层装饰者展开成一个扁平的调用：前置动作数组、被装饰的构件、后置动作数组。
+ * <p>
+ * 装饰者一层套一层时，每次 operation() 都要经过 super.operation() 和 mComponent.operation() 逐层调用，
+ * 层数多了以后调用点是多态的，JIT 不再内联，调用的代价随层数增长。
+ * 流水线的做法：
+ * 1。每一层装饰者拆成“调用被装饰者之前的动作”和“之后的动作”。
+ * 2。所有前置动作按从外到内的顺序放在一个数组里，后置动作按从内到外的顺序放在另一个数组里，
+ * operation() 就是两个数组循环加一次构件调用，和原来嵌套调用的执行顺序完全一样。
+ * 3。fuse 可以把已有的 Decorator/ConcreteDecorator 链直接展开。
+ */
+public class DecoratorPipeline implements DecoratorPattern.Component {
+
+    /**
+     * 装饰者附加的动作
+     */
+    public interface Action {
+        void run();
+    }
+
+    private final Action[] before;
+    private final DecoratorPattern.Component component;
+    private final Action[] after;
+    private final int depth;
+
+    private DecoratorPipeline(Action[] before, DecoratorPattern.Component component, Action[] after, int depth) {
+        this.before = before;
+        this.component = component;
+        this.after = after;
+        this.depth = depth;
+    }
+
+    @Override
+    public void operation() {
+        Action[] before = this.before;
+        for (int i = 0; i < before.length; i++) {
+            before[i].run();
+        }
+        component.operation();
+        Action[] after = this.after;
+        for (int i = 0; i < after.length; i++) {
+            after[i].run();
+        }
+    }
+
+    /**
+     * 装饰的层数，同时有前置和后置动作的一层只算一次
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * 展开已有的装饰者链：Decorator 直接去掉，ConcreteDecorator 变成调用 addedFunction 的后置动作。
+     * 重写了 operation() 的装饰者无法展开，从它开始的部分当作被装饰的构件。
+     */
+    public static DecoratorPipeline fuse(DecoratorPattern.Component component) {
+        Builder builder = new Builder();
+        ArrayList<DecoratorPattern.ConcreteDecorator> layers = new ArrayList<>();
+        while (component instanceof DecoratorPattern.Decorator && isFusable(component)) {
+            if (component instanceof DecoratorPattern.ConcreteDecorator) {
+                layers.add((DecoratorPattern.ConcreteDecorator) component);
+            }
+            component = ((DecoratorPattern.Decorator) component).mComponent;
+        }
+        // 链是从外到内的，Builder 从内到外添加
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            final DecoratorPattern.ConcreteDecorator decorator = layers.get(i);
+            builder.decorate(null, new Action() {
+                @Override
+                public void run() {
+                    decorator.addedFunction();
+                }
+            });
+        }
+        return builder.build(component);
+    }
+
+    /**
+     * operation() 没有被重写，执行顺序才是已知的
+     */
+    private static boolean isFusable(DecoratorPattern.Component component) {
+        try {
+            Class<?> declaring = component.getClass().getMethod("operation").getDeclaringClass();
+            return declaring == DecoratorPattern.Decorator.class || declaring == DecoratorPattern.ConcreteDecorator.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 和嵌套装饰者一样，从内到外逐层添加
+     */
+    public static class Builder {
+
+        private final ArrayList<Action> before = new ArrayList<>();
+        private final ArrayList<Action> after = new ArrayList<>();
+        private int layers;
+
+        /**
+         * 在当前的最外层再包一层
+         * @param before 调用被装饰者之前的动作，可以为null
+         * @param after  调用被装饰者之后的动作，可以为null
+         */
+        public Builder decorate(Action before, Action after) {
+            if (before != null) {
+                this.before.add(before);
+            }
+            if (after != null) {
+                this.after.add(after);
+            }
+            layers++;
+            return this;
+        }
+
+        public DecoratorPipeline build(DecoratorPattern.Component component) {
+            // 前置动作从外到内执行，和添加的顺序相反；后置动作从内到外执行，和添加的顺序相同
+            Action[] beforeArray = new Action[before.size()];
+            for (int i = 0; i < beforeArray.length; i++) {
+                beforeArray[i] = before.get(beforeArray.length - 1 - i);
+            }
+            return new DecoratorPipeline(beforeArray, component, after.toArray(new Action[after.size()]), layers);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.designpattern.flyweight;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 只读的享元目录：离线生成，启动时内存映射，第一次获取某个享元时才解码。
+ * <p>
+ * 启动时把几千个内部状态对象逐个创建出来（new ConcreteFlyweightA() 等）放进 FlyweightFactory 很慢。
+ * 享元目录的做法：
+ * 1。离线用 Writer 把所有享元编码进一个文件，并为所有键生成一个最小完美哈希（hash-and-displace）。
+ * 2。启动时只映射文件，和享元的个数无关。
+ * 3。getFlyweight(key) 用完美哈希直接算出槽位，比较一次键，然后解码享元，放进 FlyweightPool 缓存，之后的获取直接命中缓存。
+ * <p>
+ * 完美哈希：键先按 hash(key, 0) 分到若干个桶里，每个桶记录一个种子 seed，
+ * 键的槽位是 hash(key, seed) % count，生成时为每个桶寻找一个让桶内所有键都落到空槽位的种子。
+ * <p>
+ * 文件格式（大端）：
+ * <pre>
+ * 文件头 int magic, int version, int count, int bucketCount
+ * 种子   bucketCount 个 int
+ * 槽位   count 个 int，记录的偏移
+ * 记录   int keyLength, key 的 UTF-8 字节, int payloadLength, payload
+ * </pre>
+ */
+public class FlyweightCatalog<V> {
+
+    /**
+     * 享元的编码和解码
+     */
+    public interface FlyweightCodec<V> {
+        void write(V flyweight, DataOutput out) throws IOException;
+
+        V read(String key, ByteBuffer payload);
+    }
+
+    private static final int MAGIC = 0x46574354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mapped;
+    private final int count;
+    private final int bucketCount;
+    private final FlyweightCodec<V> codec;
+    private final FlyweightPool<String, V> cache;
+
+    private FlyweightCatalog(ByteBuffer mapped, FlyweightCodec<V> codec, FlyweightPool.Builder<String, V> cacheBuilder)
+            throws IOException {
+        this.mapped = mapped;
+        this.codec = codec;
+        if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a flyweight catalog file");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported catalog version " + mapped.getInt(4));
+        }
+        count = mapped.getInt(8);
+        bucketCount = mapped.getInt(12);
+        if (count < 0 || bucketCount <= 0
+                || HEADER_SIZE + 4L * (bucketCount + count) > mapped.capacity()) {
+            throw new IOException("Corrupted catalog header");
+        }
+        cache = cacheBuilder.build(new FlyweightPool.Creator<String, V>() {
+            @Override
+            public V create(String key) {
+                return decode(key);
+            }
+        });
+    }
+
+    public static <V> FlyweightCatalog<V> open(File file, FlyweightCodec<V> codec) throws IOException {
+        return open(file, codec, FlyweightPool.<String, V>newBuilder());
+    }
+
+    /**
+     * 映射目录文件，不解码任何享元
+     * @param cacheBuilder 解码后的享元缓存的配置，例如容量上限、弱引用
+     */
+    public static <V> FlyweightCatalog<V> open(File file, FlyweightCodec<V> codec,
+                                               FlyweightPool.Builder<String, V> cacheBuilder) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FlyweightCatalog<>(mapped, codec, cacheBuilder);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 获取享元，第一次获取时从映射的文件解码
+     * @return 目录里没有这个键时返回null
+     */
+    public V getFlyweight(String key) {
+        return cache.get(key);
+    }
+
+    private V decode(String key) {
+        if (count == 0) {
+            return null;
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int bucket = index(hash(keyBytes, 0), bucketCount);
+        int seed = mapped.getInt(HEADER_SIZE + 4 * bucket);
+        int slot = index(hash(keyBytes, seed), count);
+        int offset = mapped.getInt(HEADER_SIZE + 4 * bucketCount + 4 * slot);
+
+        // 完美哈希对不在目录中的键也会算出一个槽位，所以要比较键
+        int keyLength = mapped.getInt(offset);
+        if (keyLength != keyBytes.length) {
+            return null;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (mapped.get(offset + 4 + i) != keyBytes[i]) {
+                return null;
+            }
+        }
+        int payloadOffset = offset + 4 + keyLength;
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(payloadOffset + 4);
+        payload.limit(payloadOffset + 4 + mapped.getInt(payloadOffset));
+        return codec.read(key, payload.slice());
+    }
+
+    static int hash(byte[] bytes, int seed) {
+        int hash = 0x811C9DC5 ^ (seed * 0x9E3779B9);
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    static int index(int hash, int size) {
+        return (hash & 0x7FFFFFFF) % size;
+    }
+
+    /**
+     * 目录文件的生成器，在构建时离线使用
+     */
+    public static class Writer<V> {
+
+        /**
+         * 每个桶平均的键个数
+         */
+        private static final int KEYS_PER_BUCKET = 4;
+
+        private final FlyweightCodec<V> codec;
+        private final LinkedHashMap<String, byte[]> payloads = new LinkedHashMap<>();
+
+        public Writer(FlyweightCodec<V> codec) {
+            this.codec = codec;
+        }
+
+        public Writer<V> put(String key, V flyweight) throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            codec.write(flyweight, out);
+            out.flush();
+            if (payloads.put(key, payload.toByteArray()) != null) {
+                throw new IllegalStateException("Duplicate flyweight key " + key);
+            }
+            return this;
+        }
+
+        public void writeTo(File file) throws IOException {
+            int count = payloads.size();
+            int bucketCount = Math.max(1, (count + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+            byte[][] keys = new byte[count][];
+            byte[][] values = new byte[count][];
+            int n = 0;
+            for (Map.Entry<String, byte[]> entry : payloads.entrySet()) {
+                keys[n] = entry.getKey().getBytes(UTF_8);
+                values[n] = entry.getValue();
+                n++;
+            }
+
+            int[] seeds = new int[bucketCount];
+            int[] slotToKey = buildPerfectHash(keys, bucketCount, seeds);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(bucketCount);
+                for (int seed : seeds) {
+                    out.writeInt(seed);
+                }
+                int offset = HEADER_SIZE + 4 * (bucketCount + count);
+                for (int slot = 0; slot < count; slot++) {
+                    out.writeInt(offset);
+                    int key = slotToKey[slot];
+                    offset += 8 + keys[key].length + values[key].length;
+                }
+                for (int slot = 0; slot < count; slot++) {
+                    int key = slotToKey[slot];
+                    out.writeInt(keys[key].length);
+                    out.write(keys[key]);
+                    out.writeInt(values[key].length);
+                    out.write(values[key]);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * 生成最小完美哈希，先处理键最多的桶
+         * @return 槽位 -> 键的序号
+         */
+        private static int[] buildPerfectHash(byte[][] keys, int bucketCount, int[] seeds) {
+            int count = keys.length;
+            final List<List<Integer>> buckets = new ArrayList<>(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                buckets.add(new ArrayList<Integer>());
+            }
+            for (int key = 0; key < count; key++) {
+                buckets.get(index(hash(keys[key], 0), bucketCount)).add(key);
+            }
+            Integer[] order = new Integer[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return buckets.get(b).size() - buckets.get(a).size();
+                }
+            });
+
+            int[] slotToKey = new int[count];
+            Arrays.fill(slotToKey, -1);
+            int[] slots = new int[KEYS_PER_BUCKET * 8];
+            for (int bucket : order) {
+                List<Integer> members = buckets.get(bucket);
+                if (members.isEmpty()) {
+                    break;
+                }
+                if (slots.length < members.size()) {
+                    slots = new int[members.size()];
+                }
+                for (int seed = 1; ; seed++) {
+                    if (seed == Integer.MAX_VALUE) {
+                        throw new IllegalStateException("Cannot build perfect hash");
+                    }
+                    if (tryPlace(keys, members, seed, slotToKey, slots)) {
+                        seeds[bucket] = seed;
+                        break;
+                    }
+                }
+            }
+            return slotToKey;
+        }
+
+        private static boolean tryPlace(byte[][] keys, List<Integer> members, int seed, int[] slotToKey, int[] slots) {
+            int placed = 0;
+            for (int key : members) {
+                int slot = index(hash(keys[key], seed), slotToKey.length);
+                if (slotToKey[slot] != -1) {
+                    break;
+                }
+                boolean duplicate = false;
+                for (int i = 0; i < placed; i++) {
+                    if (slots[i] == slot) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (duplicate) {
+                    break;
+                }
+                slots[placed++] = slot;
+            }
+            if (placed < members.size()) {
+                return false;
+            }
+            for (int i = 0; i < placed; i++) {
+                slotToKey[slots[i]] = members.get(i);
+            }
+            return true;
+        }
+    }
+}
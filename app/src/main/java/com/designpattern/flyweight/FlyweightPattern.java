@@ -1,7 +1,11 @@
 package com.designpattern.flyweight;
 
 import android.util.Log;
-import java.util.HashMap;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * 享元模式：运用共享技术来有効地支持大量细粒度对象的复用。
@@ -20,19 +24,73 @@ import java.util.HashMap;
  *
  * 缺点：分析下面的代码可以看到，当增加一种激具体的享元角色时，工厂类得修改，违背了开闭原则。
  *
+ * 同一个享元需要处理大量外部状态时，可以把外部状态打包在数组里，调用 shareBatch 批量处理。
+ * 享元的个数非常多（几百万个字符串键）时，可以使用键保存在堆外内存中的 InternedFlyweightPool。
+ * 启动时需要预加载大量享元时，可以离线生成 FlyweightCatalog，启动时映射文件，用到时才解码。
+ *
  */
 public class FlyweightPattern {
 
     private String TAG = "FlyweightPattern";
 
+    /**
+     * 批量处理时每个外部状态占用的 float 个数：x , y
+     */
+    static final int STRIDE = 2;
+
     /**
      * 抽象享元角色（内部状态）
      */
     interface Flyweight{
         void share(UnsharableFlyweight unsharableFlyweight);
+
+        /**
+         * 批量处理外部状态，外部状态按顺序打包在 float 数组里，不再为每个外部状态创建对象，整批只有一次虚方法调用
+         * @param states 打包的外部状态，第 i 个外部状态是 states[(offset + i) * STRIDE] 开始的 STRIDE 个 float
+         * @param offset 第一个外部状态的序号
+         * @param count  外部状态的个数
+         * @param out    结果，和 states 的布局一样，可以就是 states 本身
+         * @throws ArrayIndexOutOfBoundsException 区间超出 states 或者 out
+         */
+        void shareBatch(float[] states , int offset , int count , float[] out);
+    }
+
+    /**
+     * 享元的基类：shareBatch 默认逐个调用 share（接口的默认方法需要 API 24，所以放在基类里）。
+     * 默认实现只复用一个外部状态对象；需要更快的批量处理时，具体享元重写 shareBatch，在紧凑的循环里直接处理数组。
+     */
+    abstract class AbstractFlyweight implements Flyweight{
+
+        @Override
+        public void shareBatch(float[] states , int offset , int count , float[] out) {
+            checkRange(states , out , offset , count);
+            UnsharableFlyweight unsharableFlyweight = new UnsharableFlyweight();
+            int end = (offset + count) * STRIDE;
+            for(int i = offset * STRIDE ; i < end ; i += STRIDE){
+                unsharableFlyweight.x = states[i];
+                unsharableFlyweight.y = states[i + 1];
+                // share 没有计算结果时，结果就是原来的外部状态
+                unsharableFlyweight.resultX = unsharableFlyweight.x;
+                unsharableFlyweight.resultY = unsharableFlyweight.y;
+                share(unsharableFlyweight);
+                out[i] = unsharableFlyweight.resultX;
+                out[i + 1] = unsharableFlyweight.resultY;
+            }
+        }
+    }
+
+    /**
+     * 检查批量处理的区间，用 long 计算避免 (offset + count) * STRIDE 溢出
+     */
+    static void checkRange(float[] states , float[] out , int offset , int count){
+        long end = ((long) offset + count) * STRIDE;
+        if(offset < 0 || count < 0 || end > states.length || end > out.length){
+            throw new ArrayIndexOutOfBoundsException("offset=" + offset + ", count=" + count
+                    + ", states=" + states.length + ", out=" + out.length);
+        }
     }
 
-    class ConcreteFlyweightA implements Flyweight{
+    class ConcreteFlyweightA extends AbstractFlyweight{
         String ksy = "A";
         public ConcreteFlyweightA(){
 
@@ -45,7 +103,7 @@ public class FlyweightPattern {
         }
     }
 
-    class ConcreteFlyweightB implements Flyweight{
+    class ConcreteFlyweightB extends AbstractFlyweight{
         String ksy = "B";
         public ConcreteFlyweightB(){
 
@@ -58,10 +116,60 @@ public class FlyweightPattern {
         }
     }
 
+    /**
+     * 具体享元：内部状态是缩放比例和原点，share 计算变换后的坐标。
+     * 渲染或者模拟时同一个享元每一帧要处理几万个坐标，所以重写了 shareBatch。
+     */
+    class ConcreteFlyweightC extends AbstractFlyweight{
+        final float scale;
+        final float originX;
+        final float originY;
+
+        public ConcreteFlyweightC(float scale , float originX , float originY){
+            this.scale = scale;
+            this.originX = originX;
+            this.originY = originY;
+        }
+
+        @Override
+        public void share(UnsharableFlyweight unsharableFlyweight) {
+            unsharableFlyweight.resultX = unsharableFlyweight.x * scale + originX;
+            unsharableFlyweight.resultY = unsharableFlyweight.y * scale + originY;
+        }
+
+        @Override
+        public void shareBatch(float[] states , int offset , int count , float[] out) {
+            checkRange(states , out , offset , count);
+            float scale = this.scale;
+            float originX = this.originX;
+            float originY = this.originY;
+            int end = (offset + count) * STRIDE;
+            for(int i = offset * STRIDE ; i < end ; i += STRIDE){
+                out[i] = states[i] * scale + originX;
+                out[i + 1] = states[i + 1] * scale + originY;
+            }
+        }
+    }
+
     /**
      * 非享元角色(外部状态)
+     * 外部状态是一个坐标 (x , y)，享元把处理结果写到 resultX , resultY
      */
     class UnsharableFlyweight{
+        float x;
+        float y;
+        float resultX;
+        float resultY;
+
+        UnsharableFlyweight(){
+
+        }
+
+        UnsharableFlyweight(float x , float y){
+            this.x = x;
+            this.y = y;
+        }
+
         void alonePossess(){
             Log.d(TAG , "UnsharableFlyweight alonePossess");
         }
@@ -69,26 +177,34 @@ public class FlyweightPattern {
 
     /**
      * 工厂类
+     * 享元保存在线程安全的 FlyweightPool 中，多个线程同时获取同一个 key 时只会创建一次。
+     * 命中情况记录在 FlyweightStats 中，通过 stats() 定期获取。
      */
     class FlyweightFactory{
-        HashMap<String , Flyweight> flyweightHashMap;
+        FlyweightStats flyweightStats;
+        FlyweightPool<String , Flyweight> flyweightPool;
         public FlyweightFactory(){
-            flyweightHashMap = new HashMap<>();
+            // 享元对象只有对象头和一个引用，大约 16 字节
+            flyweightStats = new FlyweightStats(16);
+            flyweightPool = FlyweightPool.<String , Flyweight>newBuilder().recordStats(flyweightStats).build(new FlyweightPool.Creator<String, Flyweight>() {
+                @Override
+                public Flyweight create(String key) {
+                    if("A".equals(key)){
+                        return new ConcreteFlyweightA();
+                    } else if("B".equals(key)){
+                        return new ConcreteFlyweightB();
+                    }
+                    return null;
+                }
+            });
         }
 
         public Flyweight getFlyweight(String key){
-            Flyweight flyweight = flyweightHashMap.get(key);
-            if(flyweight == null){
-                if("A".equals(key)){
-                    flyweight = new ConcreteFlyweightA();
-                } else if("B".equals(key)){
-                    flyweight = new ConcreteFlyweightB();
-                }
-                flyweightHashMap.put(key , flyweight);
-            } else {
-                Log.d(TAG , "key 对应的对象已经存在");
-            }
-            return flyweight ;
+            return flyweightPool.get(key);
+        }
+
+        public FlyweightStats.Snapshot stats(){
+            return flyweightStats.snapshot();
         }
     }
 
@@ -100,5 +216,110 @@ public class FlyweightPattern {
         Flyweight flyweight1 = flyweightFactory.getFlyweight("A");
         Flyweight flyweight2 = flyweightFactory.getFlyweight("A");
         Flyweight flyweight3 = flyweightFactory.getFlyweight("B");
+        Log.d(TAG , "stats : " + flyweightFactory.stats());
+    }
+
+    /**
+     * 享元目录测试代码
+     * @param dir 目录文件所在的目录，例如 Context.getCacheDir()
+     */
+    public void flyweightCatalogTest(File dir){
+        try {
+            File file = new File(dir , "flyweight.catalog");
+            FlyweightCodec codec = new FlyweightCodec();
+            FlyweightCatalog.Writer<Flyweight> writer = new FlyweightCatalog.Writer<>(codec);
+            for(int i = 0 ; i < 1000 ; i++){
+                writer.put("A" + i , new ConcreteFlyweightA());
+                writer.put("B" + i , new ConcreteFlyweightB());
+            }
+            writer.writeTo(file);
+
+            FlyweightCatalog<Flyweight> catalog = FlyweightCatalog.open(file , codec);
+            Flyweight flyweight1 = catalog.getFlyweight("A7");
+            Flyweight flyweight2 = catalog.getFlyweight("A7");
+            Flyweight flyweight3 = catalog.getFlyweight("B7");
+            Log.d(TAG , "catalog size : " + catalog.size() + " , same : " + (flyweight1 == flyweight2)
+                    + " , B7 : " + flyweight3.getClass().getSimpleName() + " , C7 : " + catalog.getFlyweight("C7"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 享元在目录文件里的编码：内部状态 ksy
+     */
+    class FlyweightCodec implements FlyweightCatalog.FlyweightCodec<Flyweight>{
+
+        @Override
+        public void write(Flyweight flyweight, DataOutput out) throws IOException {
+            out.writeUTF(flyweight instanceof ConcreteFlyweightA ? ((ConcreteFlyweightA) flyweight).ksy
+                    : ((ConcreteFlyweightB) flyweight).ksy);
+        }
+
+        @Override
+        public Flyweight read(String key, ByteBuffer payload) {
+            byte[] ksy = new byte[payload.getShort() & 0xFFFF];
+            payload.get(ksy);
+            return ksy.length == 1 && ksy[0] == 'A' ? new ConcreteFlyweightA() : new ConcreteFlyweightB();
+        }
+    }
+
+    /**
+     * 堆外键享元池测试代码
+     */
+    public void internedFlyweightTest(){
+        InternedFlyweightPool<Flyweight> pool = new InternedFlyweightPool<>();
+        FlyweightPool.Creator<String , Flyweight> creator = new FlyweightPool.Creator<String, Flyweight>() {
+            @Override
+            public Flyweight create(String key) {
+                return key.startsWith("A") ? new ConcreteFlyweightA() : new ConcreteFlyweightB();
+            }
+        };
+        StringBuilder key = new StringBuilder();
+        for(int i = 0 ; i < 100000 ; i++){
+            key.setLength(0);
+            key.append(i % 2 == 0 ? "A" : "B").append(i % 1000);
+            pool.getFlyweight(key , creator);
+        }
+        Log.d(TAG , "keys : " + pool.size() + " , arena bytes : " + pool.arenaBytes()
+                + " , A8 handle : " + pool.handleOf("A8"));
+    }
+
+    /**
+     * 对比逐个调用 share 和一次调用 shareBatch 的耗时
+     */
+    public void flyweightBatchBenchmark(){
+        int count = 20000;
+        int rounds = 200;
+        Flyweight flyweight = new ConcreteFlyweightC(2f , 10f , 20f);
+
+        UnsharableFlyweight[] unsharableFlyweights = new UnsharableFlyweight[count];
+        float[] states = new float[count * STRIDE];
+        float[] out = new float[count * STRIDE];
+        for(int i = 0 ; i < count ; i++){
+            unsharableFlyweights[i] = new UnsharableFlyweight(i , -i);
+            states[i * STRIDE] = i;
+            states[i * STRIDE + 1] = -i;
+        }
+
+        long start = System.nanoTime();
+        for(int round = 0 ; round < rounds ; round++){
+            for(UnsharableFlyweight unsharableFlyweight : unsharableFlyweights){
+                flyweight.share(unsharableFlyweight);
+            }
+        }
+        long perCallNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int round = 0 ; round < rounds ; round++){
+            flyweight.shareBatch(states , 0 , count , out);
+        }
+        long batchNanos = System.nanoTime() - start;
+
+        UnsharableFlyweight last = unsharableFlyweights[count - 1];
+        boolean same = last.resultX == out[(count - 1) * STRIDE] && last.resultY == out[(count - 1) * STRIDE + 1];
+        Log.d(TAG , "share : " + perCallNanos * 1000 / ((long) count * rounds) + " ps/state"
+                + " , shareBatch : " + batchNanos * 1000 / ((long) count * rounds) + " ps/state"
+                + " , same result : " + same);
     }
 }
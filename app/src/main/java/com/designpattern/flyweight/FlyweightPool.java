@@ -0,0 +1,485 @@
+package com.designpattern.flyweight;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 线程安全的享元池，用来替换 FlyweightFactory 里面的 HashMap。
+ * <p>
+ * FlyweightFactory 先 get 再 put，多个线程同时调用时会重复创建享元，HashMap 本身也可能被破坏，而且池子会无限增长。
+ * 享元池的做法：
+ * 1。读不加锁：享元保存在 ConcurrentHashMap 中，命中时只有一次 get。
+ * 2。同一个 key 最多创建一次：第一个线程放进一个“创建中”的节点并负责创建，其他线程等待它创建完成（computeIfAbsent 语义）。
+ * 3。可选的容量上限：超过上限时按分段 LRU（Segmented LRU）淘汰。新享元先进入试用段，再次命中后升级到保护段，
+ * 淘汰时优先淘汰试用段里最久没有使用的享元，所以只用过一次的享元不会把常用的享元挤出去。
+ * 命中时不加锁，只把节点写进一个有损的读缓冲区，缓冲区满时尝试获取锁，批量调整 LRU 顺序。
+ * 4。可选的弱引用/软引用模式：享元没有其他地方使用时（弱引用）或者内存紧张时（软引用）可以被 GC 回收，回收后再次获取会重新创建。
+ * 5。可选的统计（FlyweightStats），记录命中、未命中、创建、淘汰和创建耗时。
+ */
+public class FlyweightPool<K, V> {
+
+    /**
+     * 创建享元，返回null表示这个 key 没有对应的享元，不会被缓存
+     */
+    public interface Creator<K, V> {
+        V create(K key);
+    }
+
+    /**
+     * 享元的引用强度
+     */
+    public enum ValueStrength {
+        STRONG, WEAK, SOFT
+    }
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_STRIPES = 4;
+
+    private static final int PROBATION = 0;
+    private static final int PROTECTED = 1;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Creator<K, V> creator;
+    private final long maximumSize;
+    private final ValueStrength valueStrength;
+    private final ReferenceQueue<V> referenceQueue;
+    private final FlyweightStats stats;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong[] readCounters;
+    private final AtomicReferenceArray<Node<K, V>> readBuffer;
+
+    // 以下字段由 evictionLock 保护
+    private final Node<K, V> probationHead = new Node<>(null);
+    private final Node<K, V> protectedHead = new Node<>(null);
+    private final long maximumProtected;
+    private long probationSize;
+    private long protectedSize;
+
+    private FlyweightPool(Builder<K, V> builder, Creator<K, V> creator) {
+        this.creator = creator;
+        this.maximumSize = builder.maximumSize;
+        this.valueStrength = builder.valueStrength;
+        this.stats = builder.stats;
+        this.referenceQueue = valueStrength == ValueStrength.STRONG ? null : new ReferenceQueue<V>();
+        this.maximumProtected = maximumSize - maximumSize / 5;
+        readCounters = new AtomicLong[READ_BUFFER_STRIPES];
+        for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+            readCounters[i] = new AtomicLong();
+        }
+        readBuffer = new AtomicReferenceArray<>(READ_BUFFER_STRIPES * READ_BUFFER_SIZE);
+        probationHead.prev = probationHead.next = probationHead;
+        protectedHead.prev = protectedHead.next = protectedHead;
+    }
+
+    public static <K, V> Builder<K, V> newBuilder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 获取享元，不存在时创建
+     */
+    public V get(K key) {
+        boolean hit = true;
+        while (true) {
+            Node<K, V> node = map.get(key);
+            if (node == null) {
+                if (stats != null && hit) {
+                    stats.recordMiss();
+                }
+                Node<K, V> created = new Node<>(key);
+                node = map.putIfAbsent(key, created);
+                if (node == null) {
+                    return create(created);
+                }
+                hit = false;
+            }
+            if (node.isLoading()) {
+                if (stats != null && hit) {
+                    stats.recordMiss();
+                }
+                hit = false;
+                node.awaitLoaded();
+            }
+            if (node.failure != null) {
+                throw node.failure;
+            }
+            if (!node.isLoaded()) {
+                // 创建结果为null，这个 key 没有对应的享元
+                return null;
+            }
+            V value = node.getValue();
+            if (value != null) {
+                if (stats != null && hit) {
+                    stats.recordHit();
+                }
+                afterRead(node);
+                return value;
+            }
+            // 值已经被 GC 回收，移除后重新创建
+            if (removeNode(node) && stats != null) {
+                stats.recordEviction();
+            }
+        }
+    }
+
+    /**
+     * 获取已经存在的享元，不会创建
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = map.get(key);
+        V value = node == null || !node.isLoaded() ? null : node.getValue();
+        if (value != null) {
+            if (stats != null) {
+                stats.recordHit();
+            }
+            afterRead(node);
+        } else if (stats != null) {
+            stats.recordMiss();
+        }
+        return value;
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node = map.get(key);
+        if (node != null && !node.isLoading()) {
+            removeNode(node);
+        }
+    }
+
+    /**
+     * 享元的个数，包括正在创建的和已经被 GC 回收但还没有清理的
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * 清理被 GC 回收的享元，并处理读缓冲区
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private V create(Node<K, V> node) {
+        V value;
+        long start = stats == null ? 0 : System.nanoTime();
+        try {
+            value = creator.create(node.key);
+        } catch (RuntimeException e) {
+            map.remove(node.key, node);
+            node.fail(e);
+            throw e;
+        } catch (Error e) {
+            map.remove(node.key, node);
+            node.fail(new IllegalStateException(e));
+            throw e;
+        }
+        if (stats != null) {
+            stats.recordCreation(System.nanoTime() - start);
+        }
+        if (value == null) {
+            map.remove(node.key, node);
+            node.finish(null);
+            return null;
+        }
+        node.finish(wrap(value, node));
+        afterWrite(node);
+        return value;
+    }
+
+    private Object wrap(V value, Node<K, V> node) {
+        switch (valueStrength) {
+            case WEAK:
+                return new WeakValue<>(value, referenceQueue, node);
+            case SOFT:
+                return new SoftValue<>(value, referenceQueue, node);
+            default:
+                return value;
+        }
+    }
+
+    private boolean removeNode(Node<K, V> node) {
+        if (!map.remove(node.key, node)) {
+            return false;
+        }
+        if (maximumSize > 0) {
+            evictionLock.lock();
+            try {
+                unlink(node);
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 命中后记录到读缓冲区，不加锁。缓冲区被覆盖时丢失的记录只会让 LRU 顺序稍微不准确。
+     */
+    private void afterRead(Node<K, V> node) {
+        if (maximumSize <= 0) {
+            return;
+        }
+        int stripe = (int) (Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1));
+        long index = readCounters[stripe].getAndIncrement();
+        readBuffer.lazySet(stripe * READ_BUFFER_SIZE + (int) (index & READ_BUFFER_MASK), node);
+        if ((index & READ_BUFFER_MASK) == READ_BUFFER_MASK && evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void afterWrite(Node<K, V> node) {
+        if (maximumSize <= 0 && referenceQueue == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            if (maximumSize > 0 && map.get(node.key) == node) {
+                linkFirst(probationHead, node, PROBATION);
+            }
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * 由 evictionLock 保护
+     */
+    private void maintenance() {
+        drainReferences();
+        if (maximumSize <= 0) {
+            return;
+        }
+        for (int i = 0; i < readBuffer.length(); i++) {
+            Node<K, V> node = readBuffer.getAndSet(i, null);
+            if (node != null) {
+                onAccess(node);
+            }
+        }
+        evict();
+    }
+
+    private void drainReferences() {
+        if (referenceQueue == null) {
+            return;
+        }
+        Reference<? extends V> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            // 队列里只会有这个池创建的 WeakValue/SoftValue，它们的类型参数和池相同
+            @SuppressWarnings("unchecked")
+            ValueReference<K, V> valueReference = (ValueReference<K, V>) reference;
+            Node<K, V> node = valueReference.node();
+            if (map.remove(node.key, node)) {
+                unlink(node);
+                if (stats != null) {
+                    stats.recordEviction();
+                }
+            }
+        }
+    }
+
+    /**
+     * 试用段的节点再次命中后升级到保护段，保护段超出容量时把最久没有使用的降级到试用段
+     */
+    private void onAccess(Node<K, V> node) {
+        if (node.prev == null) {
+            // 已经被移除，或者还没有加入
+            return;
+        }
+        unlink(node);
+        linkFirst(protectedHead, node, PROTECTED);
+        while (protectedSize > maximumProtected) {
+            Node<K, V> demoted = protectedHead.prev;
+            unlink(demoted);
+            linkFirst(probationHead, demoted, PROBATION);
+        }
+    }
+
+    private void evict() {
+        while (probationSize + protectedSize > maximumSize) {
+            Node<K, V> victim = probationSize > 0 ? probationHead.prev : protectedHead.prev;
+            unlink(victim);
+            if (map.remove(victim.key, victim) && stats != null) {
+                stats.recordEviction();
+            }
+        }
+    }
+
+    private void linkFirst(Node<K, V> head, Node<K, V> node, int segment) {
+        node.segment = segment;
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+        if (segment == PROBATION) {
+            probationSize++;
+        } else {
+            protectedSize++;
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.prev == null) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        if (node.segment == PROBATION) {
+            probationSize--;
+        } else {
+            protectedSize--;
+        }
+    }
+
+    /**
+     * 池中的节点，创建完成前 value 为空，其他线程通过 latch 等待
+     */
+    static final class Node<K, V> {
+        private static final Object NO_VALUE = new Object();
+
+        final K key;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Object value;
+        private volatile boolean loaded;
+        volatile RuntimeException failure;
+
+        // 由 evictionLock 保护
+        Node<K, V> prev;
+        Node<K, V> next;
+        int segment;
+
+        Node(K key) {
+            this.key = key;
+        }
+
+        boolean isLoading() {
+            return latch.getCount() > 0;
+        }
+
+        boolean isLoaded() {
+            return loaded;
+        }
+
+        void finish(Object value) {
+            this.value = value == null ? NO_VALUE : value;
+            this.loaded = value != null;
+            latch.countDown();
+        }
+
+        void fail(RuntimeException failure) {
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        void awaitLoaded() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        V getValue() {
+            Object value = this.value;
+            if (value instanceof ValueReference) {
+                return ((Reference<V>) value).get();
+            }
+            return value == NO_VALUE ? null : (V) value;
+        }
+    }
+
+    interface ValueReference<K, V> {
+        Node<K, V> node();
+    }
+
+    static final class WeakValue<K, V> extends WeakReference<V> implements ValueReference<K, V> {
+        private final Node<K, V> node;
+
+        WeakValue(V value, ReferenceQueue<V> queue, Node<K, V> node) {
+            super(value, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> node() {
+            return node;
+        }
+    }
+
+    static final class SoftValue<K, V> extends SoftReference<V> implements ValueReference<K, V> {
+        private final Node<K, V> node;
+
+        SoftValue(V value, ReferenceQueue<V> queue, Node<K, V> node) {
+            super(value, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> node() {
+            return node;
+        }
+    }
+
+    public static class Builder<K, V> {
+        private long maximumSize;
+        private ValueStrength valueStrength = ValueStrength.STRONG;
+        private FlyweightStats stats;
+
+        /**
+         * 容量上限，0 表示不限制
+         */
+        public Builder<K, V> maximumSize(long maximumSize) {
+            if (maximumSize < 0) {
+                throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        public Builder<K, V> valueStrength(ValueStrength valueStrength) {
+            this.valueStrength = valueStrength;
+            return this;
+        }
+
+        /**
+         * 把统计记录到 stats，同一个 stats 可以给多个池共用
+         */
+        public Builder<K, V> recordStats(FlyweightStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public FlyweightPool<K, V> build(Creator<K, V> creator) {
+            return new FlyweightPool<>(this, creator);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.designpattern.flyweight;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 享元池的统计：命中、未命中、创建、淘汰次数，创建耗时，以及共享享元节省的内存估算。
+ * <p>
+ * 记录统计时不分配对象，也不会在多个线程之间竞争：
+ * 计数器按线程分成多个条带（stripe），每个线程只更新自己的条带，条带之间隔开一个缓存行，避免伪共享。
+ * 读取时（snapshot）把所有条带加起来，得到一个不可变的快照，适合定期采集。
+ */
+public class FlyweightStats {
+
+    private static final int HITS = 0;
+    private static final int MISSES = 1;
+    private static final int CREATIONS = 2;
+    private static final int EVICTIONS = 3;
+    private static final int CREATION_NANOS = 4;
+    /**
+     * 每个条带占 16 个 long（128 字节），保证不同条带不在同一个缓存行
+     */
+    private static final int STRIPE_WIDTH = 16;
+
+    private final AtomicLongArray cells;
+    private final int stripeMask;
+    private final long flyweightBytes;
+
+    /**
+     * @param flyweightBytes 一个享元对象大约占用的字节数，用来估算共享节省的内存
+     */
+    public FlyweightStats(long flyweightBytes) {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        this.cells = new AtomicLongArray(stripes * STRIPE_WIDTH);
+        this.stripeMask = stripes - 1;
+        this.flyweightBytes = flyweightBytes;
+    }
+
+    public void recordHit() {
+        cells.getAndIncrement(offset() + HITS);
+    }
+
+    public void recordMiss() {
+        cells.getAndIncrement(offset() + MISSES);
+    }
+
+    public void recordCreation(long nanos) {
+        int offset = offset();
+        cells.getAndIncrement(offset + CREATIONS);
+        cells.getAndAdd(offset + CREATION_NANOS, nanos);
+    }
+
+    public void recordEviction() {
+        cells.getAndIncrement(offset() + EVICTIONS);
+    }
+
+    /**
+     * 当前统计的快照
+     */
+    public Snapshot snapshot() {
+        long[] sums = new long[CREATION_NANOS + 1];
+        for (int base = 0; base < cells.length(); base += STRIPE_WIDTH) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += cells.get(base + i);
+            }
+        }
+        return new Snapshot(sums[HITS], sums[MISSES], sums[CREATIONS], sums[EVICTIONS], sums[CREATION_NANOS],
+                sums[HITS] * flyweightBytes);
+    }
+
+    private int offset() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & stripeMask) * STRIPE_WIDTH;
+    }
+
+    /**
+     * 不可变的统计快照
+     */
+    public static final class Snapshot {
+        public final long hitCount;
+        public final long missCount;
+        public final long creationCount;
+        public final long evictionCount;
+        public final long totalCreationNanos;
+        /**
+         * 每次命中都少创建一个享元对象，按享元大小估算节省的字节数
+         */
+        public final long estimatedBytesSaved;
+
+        Snapshot(long hitCount, long missCount, long creationCount, long evictionCount,
+                 long totalCreationNanos, long estimatedBytesSaved) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.creationCount = creationCount;
+            this.evictionCount = evictionCount;
+            this.totalCreationNanos = totalCreationNanos;
+            this.estimatedBytesSaved = estimatedBytesSaved;
+        }
+
+        public long requestCount() {
+            return hitCount + missCount;
+        }
+
+        public double hitRate() {
+            long requests = requestCount();
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        public long averageCreationNanos() {
+            return creationCount == 0 ? 0 : totalCreationNanos / creationCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "hitCount=" + hitCount +
+                    ", missCount=" + missCount +
+                    ", creationCount=" + creationCount +
+                    ", evictionCount=" + evictionCount +
+                    ", averageCreationNanos=" + averageCreationNanos() +
+                    ", estimatedBytesSaved=" + estimatedBytesSaved +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.designpattern.flyweight;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 键保存在堆外内存中的享元池，适合几百万个字符串键的超大享元池。
+ * <p>
+ * FlyweightFactory 使用 HashMap&lt;String, Flyweight&gt;，每个条目都有一个 String、一个 char[]/byte[] 和一个 HashMap.Node，
+ * 几百万个条目时这些小对象占用了大量堆内存，GC 也要扫描它们。
+ * <p>
+ * 这个享元池的做法：
+ * 1。键按 UTF-8 编码保存在一块直接内存（DirectByteBuffer）里，格式是 int 长度 + UTF-8 字节，不在堆上保存 String。
+ * 2。每个键对应一个 int 句柄（handle），句柄是从 0 开始的连续整数。
+ * 3。哈希表是一个 int[]（开放寻址，线性探测），保存句柄；键的哈希值、键在堆外内存中的位置、享元对象都放在按句柄索引的并行数组中。
+ * 4。查找时直接对 CharSequence 或者 UTF-8 字节片段计算哈希、逐字节比较，不需要先创建 String。
+ * <p>
+ * 键一旦加入就不会删除。读操作可以并发执行，写操作（加入新键、设置享元）互斥。
+ */
+public class InternedFlyweightPool<V> {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int REPLACEMENT = '?';
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer arena;
+    private int arenaUsed;
+
+    /**
+     * 哈希表，保存 句柄 + 1，0 表示空
+     */
+    private int[] table;
+    private int[] hashes;
+    private int[] keyOffsets;
+    private Object[] values;
+    private int size;
+
+    public InternedFlyweightPool() {
+        this(1024, 16 * 1024);
+    }
+
+    /**
+     * @param expectedKeys  预计的键个数
+     * @param arenaCapacity 初始的堆外内存大小（字节）
+     */
+    public InternedFlyweightPool(int expectedKeys, int arenaCapacity) {
+        if (expectedKeys < 0) {
+            throw new IllegalArgumentException("expectedKeys must not be negative: " + expectedKeys);
+        }
+        if (arenaCapacity < 0) {
+            throw new IllegalArgumentException("arenaCapacity must not be negative: " + arenaCapacity);
+        }
+        // 负载因子 0.5，容量是不小于 expectedKeys * 2 的 2 的幂，用 long 计算避免溢出
+        long wanted = Math.max(16L, (long) expectedKeys * 2);
+        int capacity = wanted >= MAXIMUM_CAPACITY
+                ? MAXIMUM_CAPACITY : Integer.highestOneBit((int) wanted - 1) << 1;
+        table = new int[capacity];
+        hashes = new int[Math.min(Math.max(expectedKeys, 16), MAXIMUM_CAPACITY - 1)];
+        keyOffsets = new int[hashes.length];
+        values = new Object[hashes.length];
+        arena = ByteBuffer.allocateDirect(Math.max(arenaCapacity, 64));
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 堆外内存中已经使用的字节数
+     */
+    public int arenaBytes() {
+        lock.readLock().lock();
+        try {
+            return arenaUsed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查找键对应的句柄
+     * @return 不存在时返回 -1
+     */
+    public int handleOf(CharSequence key) {
+        int hash = hash(key);
+        lock.readLock().lock();
+        try {
+            return find(key, hash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按 UTF-8 字节片段查找句柄
+     * @return 不存在时返回 -1
+     */
+    public int handleOf(byte[] utf8, int offset, int length) {
+        int hash = hash(utf8, offset, length);
+        lock.readLock().lock();
+        try {
+            int mask = table.length - 1;
+            for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int handle = table[slot] - 1;
+                if (hashes[handle] == hash && keyEquals(keyOffsets[handle], utf8, offset, length)) {
+                    return handle;
+                }
+            }
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 加入一个键，已经存在时返回原来的句柄
+     */
+    public int intern(CharSequence key) {
+        int hash = hash(key);
+        lock.writeLock().lock();
+        try {
+            int handle = find(key, hash);
+            return handle >= 0 ? handle : insert(key, hash);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int handle) {
+        lock.readLock().lock();
+        try {
+            checkHandle(handle);
+            return (V) values[handle];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void set(int handle, V flyweight) {
+        lock.writeLock().lock();
+        try {
+            checkHandle(handle);
+            values[handle] = flyweight;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 获取享元，不存在时创建。只有创建享元时才会把键转换成 String 交给 creator。
+     * <p>
+     * creator 在锁外执行，不阻塞其他键的读写；同一个键同时创建时只保留先放进去的享元，所有调用方拿到的是同一个对象。
+     * creator 返回 null 或者抛出异常时不加入键。
+     */
+    @SuppressWarnings("unchecked")
+    public V getFlyweight(CharSequence key, FlyweightPool.Creator<String, V> creator) {
+        int hash = hash(key);
+        lock.readLock().lock();
+        try {
+            int handle = find(key, hash);
+            if (handle >= 0 && values[handle] != null) {
+                return (V) values[handle];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        V created = creator.create(key.toString());
+        lock.writeLock().lock();
+        try {
+            int handle = find(key, hash);
+            if (handle >= 0 && values[handle] != null) {
+                return (V) values[handle];
+            }
+            if (created == null) {
+                return null;
+            }
+            if (handle < 0) {
+                handle = insert(key, hash);
+            }
+            values[handle] = created;
+            return created;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把句柄对应的键解码成 String
+     */
+    public String keyOf(int handle) {
+        lock.readLock().lock();
+        try {
+            checkHandle(handle);
+            ByteBuffer buffer = arena.duplicate();
+            int offset = keyOffsets[handle];
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            buffer.position(offset + 4);
+            buffer.get(bytes);
+            return new String(bytes, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void checkHandle(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IndexOutOfBoundsException("handle=" + handle + ", size=" + size);
+        }
+    }
+
+    private int find(CharSequence key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int handle = table[slot] - 1;
+            if (hashes[handle] == hash && keyEquals(keyOffsets[handle], key)) {
+                return handle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 由写锁保护
+     */
+    private int insert(CharSequence key, int hash) {
+        // 到达最大容量后哈希表不再扩容，至少留一个空位结束线性探测
+        if (size >= MAXIMUM_CAPACITY - 1) {
+            throw new IllegalStateException("Too many keys: " + size);
+        }
+        int length = utf8Length(key);
+        ensureArena(4 + length);
+        int offset = arenaUsed;
+        arena.putInt(offset, length);
+        int position = offset + 4;
+        for (int i = 0, n = key.length(); i < n; ) {
+            int codePoint = codePointAt(key, i);
+            i += Character.charCount(codePoint);
+            int bytes = utf8Length(codePoint);
+            int encoded = encode(codePoint);
+            for (int b = bytes - 1; b >= 0; b--) {
+                arena.put(position++, (byte) (encoded >>> (8 * b)));
+            }
+        }
+        arenaUsed = position;
+
+        if (size == hashes.length) {
+            int capacity = (int) Math.min((long) size * 2, MAXIMUM_CAPACITY - 1);
+            hashes = Arrays.copyOf(hashes, capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int handle = size++;
+        hashes[handle] = hash;
+        keyOffsets[handle] = offset;
+        if (size * 2 > table.length && table.length < MAXIMUM_CAPACITY) {
+            rehash(table.length * 2);
+        } else {
+            place(table, handle);
+        }
+        return handle;
+    }
+
+    private void place(int[] table, int handle) {
+        int mask = table.length - 1;
+        int slot = hashes[handle] & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = handle + 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] newTable = new int[capacity];
+        for (int handle = 0; handle < size; handle++) {
+            place(newTable, handle);
+        }
+        table = newTable;
+    }
+
+    private void ensureArena(int bytes) {
+        if (arenaUsed + bytes <= arena.capacity()) {
+            return;
+        }
+        long capacity = Math.max((long) arena.capacity() * 2, (long) arenaUsed + bytes);
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Key arena is full");
+        }
+        ByteBuffer newArena = ByteBuffer.allocateDirect((int) capacity);
+        ByteBuffer old = arena.duplicate();
+        old.position(0);
+        old.limit(arenaUsed);
+        newArena.put(old);
+        arena = newArena;
+    }
+
+    private boolean keyEquals(int offset, CharSequence key) {
+        ByteBuffer arena = this.arena;
+        int length = arena.getInt(offset);
+        int position = offset + 4;
+        int end = position + length;
+        for (int i = 0, n = key.length(); i < n; ) {
+            int codePoint = codePointAt(key, i);
+            i += Character.charCount(codePoint);
+            int bytes = utf8Length(codePoint);
+            if (position + bytes > end) {
+                return false;
+            }
+            int encoded = encode(codePoint);
+            for (int b = bytes - 1; b >= 0; b--) {
+                if (arena.get(position++) != (byte) (encoded >>> (8 * b))) {
+                    return false;
+                }
+            }
+        }
+        return position == end;
+    }
+
+    private boolean keyEquals(int offset, byte[] utf8, int from, int length) {
+        ByteBuffer arena = this.arena;
+        if (arena.getInt(offset) != length) {
+            return false;
+        }
+        int position = offset + 4;
+        for (int i = 0; i < length; i++) {
+            if (arena.get(position + i) != utf8[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a，按 UTF-8 字节计算，和 hash(byte[]) 的结果一致
+     */
+    static int hash(CharSequence key) {
+        int hash = FNV_OFFSET;
+        for (int i = 0, n = key.length(); i < n; ) {
+            int codePoint = codePointAt(key, i);
+            i += Character.charCount(codePoint);
+            int bytes = utf8Length(codePoint);
+            int encoded = encode(codePoint);
+            for (int b = bytes - 1; b >= 0; b--) {
+                hash = (hash ^ ((encoded >>> (8 * b)) & 0xFF)) * FNV_PRIME;
+            }
+        }
+        return mix(hash);
+    }
+
+    static int hash(byte[] utf8, int offset, int length) {
+        int hash = FNV_OFFSET;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = (hash ^ (utf8[i] & 0xFF)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 取出位置 i 的码点，不成对的代理字符按 String.getBytes 的规则替换成 '?'
+     */
+    private static int codePointAt(CharSequence key, int i) {
+        char c = key.charAt(i);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < key.length()) {
+            char low = key.charAt(i + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(c, low);
+            }
+        }
+        return REPLACEMENT;
+    }
+
+    private static int utf8Length(CharSequence key) {
+        int length = 0;
+        for (int i = 0, n = key.length(); i < n; ) {
+            int codePoint = codePointAt(key, i);
+            i += Character.charCount(codePoint);
+            length += utf8Length(codePoint);
+        }
+        return length;
+    }
+
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        } else if (codePoint < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    /**
+     * 把码点的 UTF-8 字节按大端打包进一个 int
+     */
+    private static int encode(int codePoint) {
+        if (codePoint < 0x80) {
+            return codePoint;
+        } else if (codePoint < 0x800) {
+            return ((0xC0 | (codePoint >> 6)) << 8) | (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            return ((0xE0 | (codePoint >> 12)) << 16) | ((0x80 | ((codePoint >> 6) & 0x3F)) << 8)
+                    | (0x80 | (codePoint & 0x3F));
+        }
+        return ((0xF0 | (codePoint >> 18)) << 24) | ((0x80 | ((codePoint >> 12) & 0x3F)) << 16)
+                | ((0x80 | ((codePoint >> 6) & 0x3F)) << 8) | (0x80 | (codePoint & 0x3F));
+    }
+}
@@ -0,0 +1,146 @@
+package com.designpattern.prototype;
+
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 批量克隆：用一个原型一次性克隆出 N 个对象，放进预先分配好的数组或者列表里。
+ * <p>
+ * 1。数量较少时在当前线程里直接循环克隆。
+ * 2。数量较多时按阈值拆分成多个区间，交给 ForkJoinPool 并行克隆（ForkJoinPool 需要 API 21，低版本退回到单线程）。
+ * 3。定制器（Customizer）直接修改克隆出来的对象，例如 setAge/setName，不会再创建中间对象。
+ * <p>
+ * 对于只有基本类型和不可变字段的原型，clone() 就是一次内存复制，所以批量克隆的吞吐接近内存复制。
+ */
+public class BulkPrototype {
+
+    /**
+     * 可以被批量克隆的原型
+     */
+    public interface Prototypical<T> {
+        T clone();
+    }
+
+    /**
+     * 定制器：对第 index 个克隆对象做修改
+     * 并行克隆时定制器在 ForkJoinPool 的多个工作线程里同时调用，必须是线程安全的；
+     * 只修改传入的 clone、不修改共享状态的定制器不需要额外同步。
+     */
+    public interface Customizer<T> {
+        void customize(int index, T clone);
+    }
+
+    /**
+     * 每个任务至少处理的对象个数，小于这个数不再拆分
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private final int threshold;
+
+    public BulkPrototype() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public BulkPrototype(int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public <T extends Prototypical<T>> void cloneInto(T prototype, T[] target) {
+        cloneInto(prototype, target, 0, target.length, null);
+    }
+
+    /**
+     * 克隆 count 个对象，放进 target[from, from + count)
+     * @param customizer 可以为null；count 超过阈值时在多个线程里调用，必须是线程安全的
+     */
+    public <T extends Prototypical<T>> void cloneInto(T prototype, T[] target, int from, int count,
+                                                    Customizer<? super T> customizer) {
+        // 用 count > length - from 判断，from + count 可能溢出成负数
+        if (from < 0 || count < 0 || count > target.length - from) {
+            throw new ArrayIndexOutOfBoundsException("from=" + from + ", count=" + count + ", length=" + target.length);
+        }
+        if (count > threshold && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PoolHolder.POOL.invoke(new CloneTask<>(prototype, target, from, from + count, customizer, threshold));
+        } else {
+            cloneRange(prototype, target, from, from + count, customizer);
+        }
+    }
+
+    /**
+     * 克隆 count 个对象，返回一个由数组支持的定长列表
+     * @param customizer 可以为null；count 超过阈值时在多个线程里调用，必须是线程安全的
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Prototypical<T>> List<T> cloneList(T prototype, int count, Customizer<? super T> customizer) {
+        T[] target = (T[]) java.lang.reflect.Array.newInstance(prototype.getClass(), count);
+        cloneInto(prototype, target, 0, count, customizer);
+        return Arrays.asList(target);
+    }
+
+    private static <T extends Prototypical<T>> void cloneRange(T prototype, T[] target, int from, int to,
+                                                            Customizer<? super T> customizer) {
+        if (customizer == null) {
+            for (int i = from; i < to; i++) {
+                target[i] = prototype.clone();
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                T clone = prototype.clone();
+                customizer.customize(i, clone);
+                target[i] = clone;
+            }
+        }
+    }
+
+    /**
+     * 静态内部类持有线程池，第一次并行克隆时才创建
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * 把区间对半拆分，直到区间长度不超过阈值
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static class CloneTask<T extends Prototypical<T>> extends RecursiveAction {
+
+        private static final long serialVersionUID = -3520374946735623815L;
+
+        private final T prototype;
+        private final T[] target;
+        private final int from;
+        private final int to;
+        private final Customizer<? super T> customizer;
+        private final int threshold;
+
+        CloneTask(T prototype, T[] target, int from, int to, Customizer<? super T> customizer, int threshold) {
+            this.prototype = prototype;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.customizer = customizer;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                cloneRange(prototype, target, from, to, customizer);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CloneTask<>(prototype, target, from, middle, customizer, threshold),
+                    new CloneTask<>(prototype, target, middle, to, customizer, threshold));
+        }
+    }
+}
@@ -4,10 +4,13 @@ import android.util.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * 克隆：是指克隆对象，在堆空间复制一块内存，克隆出来的对象和原型对象是两个不同的对象（地址空间不同，即不是同一个对象）。
@@ -24,6 +27,13 @@ import java.io.Serializable;
  * 在对象clone的时候，给克隆出来的对象的引用对象赋值（调用引用类的克隆方法）
  * <p>
  * 2。使用序列化，利用序列化的特点。写在流里的是对象的一个拷贝，而原对象仍然存在于JVM里面。可以利用这个特性，可以做深克隆。
+ * <p>
+ * 3。使用拷贝器（Copier），为每个类生成逐字段的拷贝代码，不走反射也不走序列化流，只分配被拷贝的对象本身。
+ * 拷贝器不保留共享和循环引用，只适用于树状的对象结构，不能完全替代序列化方法。
+ * <p>
+ * 4。对象之间有共享或循环引用时，使用 GraphClone，它会记录已经拷贝过的对象，保留原来的引用关系。
+ * <p>
+ * 原型模板可以用 PrototypeSnapshot 保存到文件里，下次启动时映射文件，直接从文件的字节创建新实例。
  */
 public class DeepClone implements Serializable {
 
@@ -58,6 +68,231 @@ public class DeepClone implements Serializable {
     }
 
 
+    /**
+     * 使用拷贝器
+     */
+    public void deepCloenCopier() {
+        Log.d(TAG, "xiaoA : " + xiaoA);
+        XiaoA xiaoB = xiaoACopier().copy(xiaoA);
+        xiaoB.age = 50;
+        xiaoB.name = "xiaoB";
+        xiaoB.limb.zise = 10;
+        xiaoB.limb.name = "一双麒麟臂";
+        Log.d(TAG, "xiaoA : " + xiaoA);
+        Log.d(TAG, "xiaoB : " + xiaoB);
+    }
+
+    /**
+     * 对比序列化和拷贝器两种深克隆的耗时
+     */
+    public void deepCloenBenchmark() {
+        int count = 10000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            xiaoA.copyBySerializable();
+        }
+        long serializableNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            xiaoACopier().copy(xiaoA);
+        }
+        long copierNanos = System.nanoTime() - start;
+        Log.d(TAG, "Serializable : " + serializableNanos / count + " ns/op"
+                + " , Copier : " + copierNanos / count + " ns/op");
+    }
+
+
+    /**
+     * 拷贝器：把 source 深拷贝成一个新的对象。
+     * 拷贝器的代码按固定的模板逐字段生成：
+     * 1。基本类型和不可变类型（String）直接赋值。
+     * 2。引用的 Cloneable/Serializable 成员调用该成员类型的拷贝器。
+     * <p>
+     * 和序列化方法的区别：
+     * 1。拷贝器不记录已经拷贝过的对象，同一个对象被引用几次就拷贝几次，共享的引用在拷贝里变成互相独立的对象；
+     * 循环引用会一直递归下去。所以拷贝器只适用于树状的对象结构，共享或循环引用的对象图请使用 GraphClone（见 deepCloenGraph）。
+     * 2。拷贝器不是 Serializable 的，DeepClone 里的拷贝器字段是 transient 的，反序列化得到的 DeepClone 里它们是null，
+     * 所以要通过 xiaoACopier() 使用，第一次使用时再创建。
+     */
+    interface Copier<T> {
+        T copy(T source);
+    }
+
+    private transient LimbCopier limbCopier;
+    private transient XiaoACopier xiaoACopier;
+
+    /**
+     * 拷贝器字段在反序列化后是null，第一次使用时创建
+     */
+    private XiaoACopier xiaoACopier() {
+        if (xiaoACopier == null) {
+            limbCopier = new LimbCopier();
+            xiaoACopier = new XiaoACopier();
+        }
+        return xiaoACopier;
+    }
+
+    /**
+     * XiaoA 的拷贝器
+     */
+    private class XiaoACopier implements Copier<XiaoA> {
+
+        @Override
+        public XiaoA copy(XiaoA source) {
+            if (source == null) {
+                return null;
+            }
+            return new XiaoA(source.name, source.age, limbCopier.copy(source.limb));
+        }
+    }
+
+    /**
+     * Limb 的拷贝器
+     */
+    private class LimbCopier implements Copier<Limb> {
+
+        @Override
+        public Limb copy(Limb source) {
+            if (source == null) {
+                return null;
+            }
+            return new Limb(source.zise, source.name);
+        }
+    }
+
+
+    /**
+     * 使用 GraphClone 克隆带共享和循环引用的对象图
+     */
+    public void deepCloenGraph() {
+        GraphClone graphClone = new GraphClone()
+                .register(XiaoA.class, new XiaoATypeCopier())
+                .register(Limb.class, new LimbTypeCopier());
+        // xiaoA 和 xiaoC 共用同一个 limb，数组的最后一个元素指向数组自己
+        XiaoA xiaoC = new XiaoA("xiaoC", 18, xiaoA.limb);
+        Object[] graph = new Object[3];
+        graph[0] = xiaoA;
+        graph[1] = xiaoC;
+        graph[2] = graph;
+
+        Object[] graphCopy = graphClone.deepClone(graph);
+        XiaoA xiaoB = (XiaoA) graphCopy[0];
+        XiaoA xiaoD = (XiaoA) graphCopy[1];
+        Log.d(TAG, "xiaoB : " + xiaoB + " , xiaoD : " + xiaoD);
+        Log.d(TAG, "limb shared : " + (xiaoB.limb == xiaoD.limb)
+                + " , limb copied : " + (xiaoB.limb != xiaoA.limb)
+                + " , cycle kept : " + (graphCopy[2] == graphCopy));
+    }
+
+    /**
+     * XiaoA 的类型拷贝器，引用字段只有 limb
+     */
+    private class XiaoATypeCopier implements GraphClone.TypeCopier<XiaoA> {
+
+        @Override
+        public XiaoA allocate(XiaoA source) {
+            return new XiaoA(source.name, source.age, null);
+        }
+
+        @Override
+        public int referenceCount(XiaoA source) {
+            return 1;
+        }
+
+        @Override
+        public Object getReference(XiaoA source, int index) {
+            return source.limb;
+        }
+
+        @Override
+        public void setReference(XiaoA copy, int index, Object value) {
+            copy.limb = (Limb) value;
+        }
+    }
+
+    /**
+     * Limb 的类型拷贝器，没有引用字段
+     */
+    private class LimbTypeCopier implements GraphClone.TypeCopier<Limb> {
+
+        @Override
+        public Limb allocate(Limb source) {
+            return new Limb(source.zise, source.name);
+        }
+
+        @Override
+        public int referenceCount(Limb source) {
+            return 0;
+        }
+
+        @Override
+        public Object getReference(Limb source, int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public void setReference(Limb copy, int index, Object value) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+
+    /**
+     * 把原型模板写进快照文件，再从映射的文件创建新实例
+     * @param dir 快照文件所在的目录，例如 Context.getCacheDir()
+     */
+    public void deepCloenSnapshot(File dir) {
+        try {
+            File file = new File(dir, "xiaoA.snapshot");
+            XiaoACodec codec = new XiaoACodec();
+            new PrototypeSnapshot.Writer<>(codec)
+                    .put("xiaoA", xiaoA)
+                    .put("xiaoC", new XiaoA("xiaoC", 18, new Limb(4, "四肢")))
+                    .writeTo(file);
+
+            PrototypeSnapshot<XiaoA> snapshot = PrototypeSnapshot.open(file, codec);
+            XiaoA xiaoB = snapshot.newInstance("xiaoA");
+            xiaoB.limb.zise = 10;
+            Log.d(TAG, "templates : " + snapshot.size());
+            Log.d(TAG, "xiaoA : " + xiaoA);
+            Log.d(TAG, "xiaoB : " + xiaoB);
+            Log.d(TAG, "xiaoC : " + snapshot.newInstance("xiaoC"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * XiaoA 在快照文件里的编码：name，age，然后是 limb（是否为null，zise，name）
+     */
+    private class XiaoACodec implements PrototypeSnapshot.TemplateCodec<XiaoA> {
+
+        @Override
+        public void write(XiaoA template, DataOutput out) throws IOException {
+            PrototypeSnapshot.writeString(out, template.name);
+            out.writeInt(template.age);
+            out.writeBoolean(template.limb != null);
+            if (template.limb != null) {
+                out.writeInt(template.limb.zise);
+                PrototypeSnapshot.writeString(out, template.limb.name);
+            }
+        }
+
+        @Override
+        public XiaoA read(ByteBuffer in) {
+            String name = PrototypeSnapshot.readString(in);
+            int age = in.getInt();
+            Limb limb = null;
+            if (in.get() != 0) {
+                int zise = in.getInt();
+                limb = new Limb(zise, PrototypeSnapshot.readString(in));
+            }
+            return new XiaoA(name, age, limb);
+        }
+    }
+
+
     private class XiaoA implements Cloneable, Serializable {
 
         private static final long serialVersionUID = 7991552226614088458L;
@@ -89,6 +324,22 @@ public class DeepClone implements Serializable {
          * 使用序列化方法
          */
         public void deepCloenSerializable() {
+            XiaoA xiaoA = copyBySerializable();
+            if (xiaoA == null) {
+                return;
+            }
+            xiaoA.age = 50;
+            xiaoA.name = "xiaoB";
+            xiaoA.limb.zise = 10;
+            xiaoA.limb.name = "一双麒麟臂";
+            Log.d(TAG, "xiaoB : " + xiaoA);
+        }
+
+        /**
+         * 写到流里再读出来，得到一个深拷贝
+         * @return 拷贝失败时返回null
+         */
+        public XiaoA copyBySerializable() {
             try {
                 ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
                 ObjectOutputStream objectOutput = new ObjectOutputStream(byteArrayOutputStream);
@@ -96,17 +347,13 @@ public class DeepClone implements Serializable {
 
                 ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
                 ObjectInputStream objectInputStream = new ObjectInputStream(byteArrayInputStream);
-                XiaoA xiaoA = (XiaoA) objectInputStream.readObject();
-                xiaoA.age = 50;
-                xiaoA.name = "xiaoB";
-                xiaoA.limb.zise = 10;
-                xiaoA.limb.name = "一双麒麟臂";
-                Log.d(TAG, "xiaoB : " + xiaoA);
+                return (XiaoA) objectInputStream.readObject();
             } catch (IOException e) {
                 e.printStackTrace();
             } catch (ClassNotFoundException e) {
                 e.printStackTrace();
             }
+            return null;
         }
 
 
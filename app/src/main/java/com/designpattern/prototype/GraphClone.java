@@ -0,0 +1,299 @@
+package com.designpattern.prototype;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * 对象图的深克隆。
+ * <p>
+ * 手写的 clone() 方法（例如 DeepClone.XiaoA.clone()）只能处理树状结构：
+ * 1。两个对象引用同一个子对象（共享）时，克隆出来会变成两个不同的子对象。
+ * 2。对象之间循环引用时，clone() 会无限递归下去。
+ * 序列化方法能处理这两种情况，但是代价很大。
+ * <p>
+ * 这里的做法：
+ * 1。用一个身份映射表（原对象 -> 副本）记录已经拷贝过的对象，再次遇到同一个对象时直接用已有的副本，所以共享和循环都能保留下来。
+ * 2。不递归，用一个显式的工作栈逐个处理对象，对象图再深也不会栈溢出。
+ * 3。身份映射表使用开放寻址（按 System.identityHashCode 线性探测），不装箱，也可以预先指定大小，避免 IdentityHashMap 的扩容开销。
+ * <p>
+ * 每个要拷贝的类需要注册一个类型拷贝器（TypeCopier），描述怎么分配副本以及有哪些引用字段。
+ * 不可变类型（String、包装类型、枚举）直接共享，不会拷贝。
+ */
+public class GraphClone {
+
+    /**
+     * 类型拷贝器
+     */
+    public interface TypeCopier<T> {
+
+        /**
+         * 分配一个副本，复制基本类型和不可变字段，引用字段之后通过 setReference 填充
+         */
+        T allocate(T source);
+
+        /**
+         * 引用字段的个数
+         */
+        int referenceCount(T source);
+
+        Object getReference(T source, int index);
+
+        void setReference(T copy, int index, Object value);
+    }
+
+    private final HashMap<Class<?>, TypeCopier<?>> copiers = new HashMap<>();
+    private final HashSet<Class<?>> immutables = new HashSet<>();
+
+    public GraphClone() {
+        registerImmutable(String.class);
+        registerImmutable(Boolean.class);
+        registerImmutable(Character.class);
+        registerImmutable(Byte.class);
+        registerImmutable(Short.class);
+        registerImmutable(Integer.class);
+        registerImmutable(Long.class);
+        registerImmutable(Float.class);
+        registerImmutable(Double.class);
+        register(Object[].class, new ObjectArrayCopier());
+    }
+
+    public <T> GraphClone register(Class<T> type, TypeCopier<T> copier) {
+        copiers.put(type, copier);
+        return this;
+    }
+
+    /**
+     * 注册不可变类型，这些类型的对象在副本中直接共享
+     */
+    public GraphClone registerImmutable(Class<?> type) {
+        immutables.add(type);
+        return this;
+    }
+
+    public <T> T deepClone(T root) {
+        return deepClone(root, 16);
+    }
+
+    /**
+     * @param expectedSize 预计的对象个数，用来预先分配身份映射表
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T deepClone(T root, int expectedSize) {
+        if (root == null || isImmutable(root.getClass())) {
+            return root;
+        }
+        IdentityCopyMap copies = new IdentityCopyMap(expectedSize);
+        // 工作栈，成对存放（原对象，副本）
+        Object[] stack = new Object[32];
+        int top = 0;
+
+        Object rootCopy = copierFor(root.getClass()).allocate(root);
+        copies.put(root, rootCopy);
+        stack[top++] = root;
+        stack[top++] = rootCopy;
+
+        while (top > 0) {
+            Object copy = stack[--top];
+            Object source = stack[--top];
+            stack[top] = null;
+            stack[top + 1] = null;
+            TypeCopier<Object> copier = copierFor(source.getClass());
+            int count = copier.referenceCount(source);
+            for (int i = 0; i < count; i++) {
+                Object reference = copier.getReference(source, i);
+                Object referenceCopy;
+                if (reference == null || isImmutable(reference.getClass())) {
+                    referenceCopy = reference;
+                } else {
+                    referenceCopy = copies.get(reference);
+                    if (referenceCopy == null) {
+                        referenceCopy = copierFor(reference.getClass()).allocate(reference);
+                        copies.put(reference, referenceCopy);
+                        if (top + 2 > stack.length) {
+                            Object[] grown = new Object[stack.length * 2];
+                            System.arraycopy(stack, 0, grown, 0, top);
+                            stack = grown;
+                        }
+                        stack[top++] = reference;
+                        stack[top++] = referenceCopy;
+                    }
+                }
+                copier.setReference(copy, i, referenceCopy);
+            }
+        }
+        return (T) rootCopy;
+    }
+
+    private boolean isImmutable(Class<?> type) {
+        return type.isEnum() || immutables.contains(type)
+                || (type.getSuperclass() != null && type.getSuperclass().isEnum());
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypeCopier<Object> copierFor(Class<?> type) {
+        TypeCopier<?> copier = copiers.get(type);
+        if (copier == null) {
+            if (type.isArray()) {
+                copier = type.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY_COPIER : copiers.get(Object[].class);
+            } else {
+                throw new IllegalArgumentException("No TypeCopier registered for " + type.getName());
+            }
+        }
+        return (TypeCopier<Object>) copier;
+    }
+
+    /**
+     * 引用类型数组的拷贝器，保留数组的实际元素类型
+     */
+    private static class ObjectArrayCopier implements TypeCopier<Object[]> {
+
+        @Override
+        public Object[] allocate(Object[] source) {
+            return (Object[]) java.lang.reflect.Array.newInstance(source.getClass().getComponentType(), source.length);
+        }
+
+        @Override
+        public int referenceCount(Object[] source) {
+            return source.length;
+        }
+
+        @Override
+        public Object getReference(Object[] source, int index) {
+            return source[index];
+        }
+
+        @Override
+        public void setReference(Object[] copy, int index, Object value) {
+            copy[index] = value;
+        }
+    }
+
+    /**
+     * 基本类型数组没有引用字段，allocate 的时候整体复制
+     */
+    private static final TypeCopier<Object> PRIMITIVE_ARRAY_COPIER = new TypeCopier<Object>() {
+
+        @Override
+        public Object allocate(Object source) {
+            int length = java.lang.reflect.Array.getLength(source);
+            Object copy = java.lang.reflect.Array.newInstance(source.getClass().getComponentType(), length);
+            System.arraycopy(source, 0, copy, 0, length);
+            return copy;
+        }
+
+        @Override
+        public int referenceCount(Object source) {
+            return 0;
+        }
+
+        @Override
+        public Object getReference(Object source, int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public void setReference(Object copy, int index, Object value) {
+            throw new IndexOutOfBoundsException();
+        }
+    };
+
+    /**
+     * 身份映射表：原对象 -> 副本
+     * 开放寻址，线性探测，按对象身份（==）比较，键值分别放在两个数组里，不装箱。
+     */
+    static final class IdentityCopyMap {
+
+        /**
+         * 数组长度的上限，再大就不能用 int 下标的 2 的幂表示
+         */
+        private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+        private Object[] keys;
+        private Object[] values;
+        private int size;
+        private int threshold;
+
+        IdentityCopyMap(int expectedSize) {
+            // 负载因子 0.5，容量是不小于 expectedSize * 2 的 2 的幂，用 long 计算避免溢出
+            long wanted = Math.max(16L, (long) expectedSize * 2);
+            int capacity = wanted >= MAXIMUM_CAPACITY
+                    ? MAXIMUM_CAPACITY : Integer.highestOneBit((int) wanted - 1) << 1;
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            threshold = thresholdOf(capacity);
+        }
+
+        /**
+         * 到达最大容量后不再扩容，允许装到只剩一个空位（线性探测需要至少一个空位结束查找）
+         */
+        private static int thresholdOf(int capacity) {
+            return capacity == MAXIMUM_CAPACITY ? capacity - 1 : capacity >> 1;
+        }
+
+        Object get(Object key) {
+            Object[] keys = this.keys;
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            Object current;
+            while ((current = keys[index]) != null) {
+                if (current == key) {
+                    return values[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        void put(Object key, Object value) {
+            if (size >= threshold) {
+                if (keys.length == MAXIMUM_CAPACITY) {
+                    throw new IllegalStateException("Too many objects: " + size);
+                }
+                resize();
+            }
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            Object current;
+            while ((current = keys[index]) != null) {
+                if (current == key) {
+                    values[index] = value;
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = value;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void resize() {
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new Object[oldKeys.length << 1];
+            values = new Object[oldValues.length << 1];
+            threshold = thresholdOf(keys.length);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                Object key = oldKeys[i];
+                if (key != null) {
+                    int index = hash(key) & mask;
+                    while (keys[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = key;
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(Object key) {
+            int h = System.identityHashCode(key);
+            // identityHashCode 的低位分布不均匀，打散一下
+            return (h ^ (h >>> 16)) * 0x9E3779B9;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.designpattern.prototype;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 写时复制（Copy-On-Write）的延迟深克隆。
+ * <p>
+ * 浅克隆（ShallowClone）：只复制对象本身，引用的子对象和原对象共用，修改子对象会互相影响。
+ * 深克隆（DeepClone）：克隆的时候立刻把引用的子对象也复制一遍，互不影响，但是每次克隆都要复制全部子对象。
+ * <p>
+ * 延迟深克隆：克隆的时候只复制对象本身，引用的子对象先和原对象共用；
+ * 等到任何一方（原对象或者克隆对象）第一次修改这个子对象时，才把子对象复制一份给修改的一方。
+ * 所以对外表现和深克隆一样互不影响，但是只读的克隆对象不需要复制子对象。
+ * <p>
+ * 实现要点
+ * 1。子对象放在一个共享的盒子（Shared）里，盒子记录有几个持有者。
+ * 2。子对象只能通过对象自己的方法修改，修改之前检查持有者个数，大于1就先复制一份。
+ * 3。克隆对象被回收时不会减少持有者个数，所以原对象之后第一次修改时可能多复制一次，不影响正确性。
+ */
+public class LazyClone {
+
+    private String TAG = "LazyClone";
+
+    private XiaoA xiaoA = new XiaoA("xiaoA", 25, new Limb(2, "双手"));
+
+    public void lazyCloen() {
+        try {
+            Log.d(TAG, "xiaoA : " + xiaoA);
+            XiaoA xiaoB = xiaoA.clone();
+            Log.d(TAG, "xiaoB : " + xiaoB + " , limb shared : " + xiaoA.isLimbSharedWith(xiaoB));
+            xiaoA.name = "xiaoAa";
+            xiaoA.age = 30;
+            xiaoA.setLimbZise(4);
+            xiaoA.setLimbName("双脚");
+            Log.d(TAG, "xiaoA : " + xiaoA);
+            Log.d(TAG, "xiaoB : " + xiaoB + " , limb shared : " + xiaoA.isLimbSharedWith(xiaoB));
+
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 对比深克隆和延迟深克隆在“克隆后大多只读”场景下的耗时和内存
+     */
+    public void lazyCloenBenchmark() {
+        int count = 200000;
+        try {
+            XiaoA[] eager = new XiaoA[count];
+            long eagerMemory = usedMemory();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                XiaoA clone = xiaoA.eagerClone();
+                clone.age = i;
+                eager[i] = clone;
+            }
+            long eagerNanos = System.nanoTime() - start;
+            // 先统计内存再读取，保证统计时数组还在使用中
+            eagerMemory = usedMemory() - eagerMemory;
+            long eagerReads = readAll(eager);
+            eager = null;
+
+            XiaoA[] lazy = new XiaoA[count];
+            long lazyMemory = usedMemory();
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                XiaoA clone = xiaoA.clone();
+                clone.age = i;
+                lazy[i] = clone;
+            }
+            long lazyNanos = System.nanoTime() - start;
+            // 先统计内存再读取，保证统计时数组还在使用中
+            lazyMemory = usedMemory() - lazyMemory;
+            long lazyReads = readAll(lazy);
+
+            Log.d(TAG, "eager : " + eagerNanos / count + " ns/op , " + eagerMemory / 1024 + " KB , reads " + eagerReads);
+            Log.d(TAG, "lazy : " + lazyNanos / count + " ns/op , " + lazyMemory / 1024 + " KB , reads " + lazyReads);
+        } catch (CloneNotSupportedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private long readAll(XiaoA[] xiaoAs) {
+        long sum = 0;
+        for (XiaoA xiaoA : xiaoAs) {
+            sum += xiaoA.age + xiaoA.getLimbZise();
+        }
+        return sum;
+    }
+
+    private long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 共享的子对象
+     * owners 记录有几个对象持有这个盒子
+     */
+    private static class Shared<T> {
+        final T value;
+        final AtomicInteger owners = new AtomicInteger(1);
+
+        Shared(T value) {
+            this.value = value;
+        }
+    }
+
+    class XiaoA implements Cloneable {
+        private String name;
+        private int age;
+        private Shared<Limb> limb;
+
+        public XiaoA(String name, int age, Limb limb) {
+            this.name = name;
+            this.age = age;
+            this.limb = new Shared<>(limb);
+        }
+
+        /**
+         * 只复制对象本身，limb 和原对象共用，持有者加一
+         * @return
+         * @throws CloneNotSupportedException
+         */
+        @Override
+        public XiaoA clone() throws CloneNotSupportedException {
+            XiaoA xiaoB = (XiaoA) super.clone();
+            limb.owners.incrementAndGet();
+            return xiaoB;
+        }
+
+        /**
+         * 立刻复制 limb 的深克隆，用来做对比
+         * @return
+         * @throws CloneNotSupportedException
+         */
+        public XiaoA eagerClone() throws CloneNotSupportedException {
+            XiaoA xiaoB = (XiaoA) super.clone();
+            xiaoB.limb = new Shared<>(limb.value.clone());
+            return xiaoB;
+        }
+
+        public int getLimbZise() {
+            return limb.value.zise;
+        }
+
+        public String getLimbName() {
+            return limb.value.name;
+        }
+
+        public void setLimbZise(int zise) {
+            writableLimb().zise = zise;
+        }
+
+        public void setLimbName(String name) {
+            writableLimb().name = name;
+        }
+
+        boolean isLimbSharedWith(XiaoA other) {
+            return limb == other.limb;
+        }
+
+        /**
+         * 修改 limb 之前调用，limb 还有其他持有者时先复制一份
+         */
+        private Limb writableLimb() {
+            Shared<Limb> shared = limb;
+            if (shared.owners.get() > 1) {
+                try {
+                    limb = new Shared<>(shared.value.clone());
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException(e);
+                }
+                shared.owners.decrementAndGet();
+            }
+            return limb.value;
+        }
+
+        @Override
+        public String toString() {
+            return "XiaoA{" +
+                    "name='" + name + '\'' +
+                    ", age=" + age +
+                    ", limb=" + limb.value +
+                    '}';
+        }
+    }
+
+    class Limb implements Cloneable {
+        private int zise;
+        private String name;
+
+        public Limb(int zise, String name) {
+            this.zise = zise;
+            this.name = name;
+        }
+
+        @Override
+        public Limb clone() throws CloneNotSupportedException {
+            return (Limb) super.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Limb{" +
+                    "zise=" + zise +
+                    ", name='" + name + '\'' +
+                    '}';
+        }
+    }
+}
@@ -17,6 +17,9 @@ import android.util.Log;
  * 2。具体原型类：实现抽象原型接口。重写Object类的colne（）方法。
  * 3。访问类：使用具体原型类中的 clone() 方法来复制新的对象。
  *
+ * 需要一次创建大量对象时，可以使用 BulkPrototype 批量克隆。
+ * 需要保存几百万个克隆对象时，可以使用列式的 SheepStore，只保存字段，不保存对象。
+ *
  */
 public class Prototype {
 
@@ -31,12 +34,73 @@ public class Prototype {
         Log.d(TAG , "sheepClone : "+ sheepClone);
     }
 
+    /**
+     * 批量克隆测试代码
+     */
+    public void protoytpeBulkTest(){
+        Sheep sheep = new Sheep(2,"小羊");
+        BulkPrototype bulkPrototype = new BulkPrototype();
+        Sheep[] flock = new Sheep[100000];
+        long start = System.nanoTime();
+        bulkPrototype.cloneInto(sheep, flock, 0, flock.length, new BulkPrototype.Customizer<Sheep>() {
+            @Override
+            public void customize(int index, Sheep clone) {
+                clone.setAge(index % 10);
+                clone.setName("多利");
+            }
+        });
+        long nanos = System.nanoTime() - start;
+        Log.d(TAG , "flock[0] : "+ flock[0] + " , flock[99999] : " + flock[99999]
+                + " , " + nanos / flock.length + " ns/op");
+    }
+
+
+    /**
+     * 列式存储测试代码
+     */
+    public void protoytpeStoreTest(){
+        SheepAdapter adapter = new SheepAdapter();
+        SheepStore store = new SheepStore(1000000);
+        int prototypeRow = store.add(new Sheep(2,"小羊"), adapter);
+        store.cloneRows(prototypeRow, 999999);
+        store.addToAllAges(1);
+        SheepStore.Cursor cursor = store.cursor();
+        while (cursor.moveToNext()){
+            if (cursor.getRow() % 2 == 0){
+                cursor.setName("多利");
+            }
+        }
+        Log.d(TAG , "size : "+ store.size() + " , names : " + store.nameCount()
+                + " , last : " + store.toSheep(store.size() - 1, adapter));
+    }
+
+    /**
+     * Sheep 和 SheepStore 之间的转换
+     */
+    private class SheepAdapter implements SheepStore.SheepAdapter<Sheep> {
+
+        @Override
+        public int getAge(Sheep sheep) {
+            return sheep.getAge();
+        }
+
+        @Override
+        public String getName(Sheep sheep) {
+            return sheep.getName();
+        }
+
+        @Override
+        public Sheep newSheep(int age, String name) {
+            return new Sheep(age, name);
+        }
+    }
+
 
     /**
      * 1。实现抽象原型Cloneable
      * 2。重写Object的clone()方法
      */
-    private class Sheep implements Cloneable{
+    private class Sheep implements Cloneable, BulkPrototype.Prototypical<Sheep> {
 
         private int age ;
         private String name ;
@@ -0,0 +1,278 @@
+package com.designpattern.prototype;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 原型快照文件：把原型模板写进一个紧凑的二进制文件，启动时用 FileChannel.map 映射进来，直接从映射的字节创建新实例。
+ * <p>
+ * 每次启动都重新构建原型模板（例如 DeepClone.XiaoA 和它引用的 Limb）很慢，而且模板越多越慢。
+ * 使用快照文件之后：
+ * 1。启动时只做一次内存映射，和模板个数无关。
+ * 2。模板第一次被使用时才在索引里查找，之后缓存它在文件里的位置。
+ * 3。每次 newInstance 都从映射的字节直接解码出一个新对象，不经过 Java 序列化。
+ * <p>
+ * 文件格式（大端）：
+ * <pre>
+ * 文件头 int magic, int version, int count
+ * 索引   count 个 { int keyHash, int keyOffset, int recordOffset, int recordLength }，按 keyHash、key 排序
+ * 数据   key：int length + UTF-8 字节；record：TemplateCodec 写出的字节
+ * </pre>
+ */
+public class PrototypeSnapshot<T> {
+
+    /**
+     * 模板的编码和解码
+     */
+    public interface TemplateCodec<T> {
+        void write(T template, DataOutput out) throws IOException;
+
+        /**
+         * 从 in 的当前位置解码出一个新对象
+         */
+        T read(ByteBuffer in);
+    }
+
+    private static final int MAGIC = 0x50524F54;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer mapped;
+    private final int count;
+    private final TemplateCodec<T> codec;
+    private final ConcurrentHashMap<String, ByteBuffer> records = new ConcurrentHashMap<>();
+
+    private PrototypeSnapshot(ByteBuffer mapped, TemplateCodec<T> codec) throws IOException {
+        this.mapped = mapped;
+        this.codec = codec;
+        if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a prototype snapshot file");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + mapped.getInt(4));
+        }
+        count = mapped.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > mapped.capacity()) {
+            throw new IOException("Corrupted snapshot index");
+        }
+    }
+
+    /**
+     * 映射快照文件，不读取任何模板
+     */
+    public static <T> PrototypeSnapshot<T> open(File file, TemplateCodec<T> codec) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // 映射在通道关闭后仍然有效
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PrototypeSnapshot<>(mapped, codec);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean contains(String key) {
+        return record(key) != null;
+    }
+
+    /**
+     * 从映射的字节解码出模板的一个新实例
+     * @return 没有这个模板时返回null
+     */
+    public T newInstance(String key) {
+        ByteBuffer record = record(key);
+        return record == null ? null : codec.read(record.duplicate());
+    }
+
+    private ByteBuffer record(String key) {
+        ByteBuffer record = records.get(key);
+        if (record == null) {
+            record = find(key);
+            if (record != null) {
+                records.putIfAbsent(key, record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * 在索引里二分查找
+     */
+    private ByteBuffer find(String key) {
+        int hash = key.hashCode();
+        byte[] keyBytes = null;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = HEADER_SIZE + middle * INDEX_ENTRY_SIZE;
+            int entryHash = mapped.getInt(entry);
+            int compare = entryHash < hash ? -1 : (entryHash == hash ? 0 : 1);
+            if (compare == 0) {
+                if (keyBytes == null) {
+                    keyBytes = key.getBytes(UTF_8);
+                }
+                compare = compareKey(mapped.getInt(entry + 4), keyBytes);
+            }
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                ByteBuffer record = mapped.duplicate();
+                int offset = mapped.getInt(entry + 8);
+                record.position(offset);
+                record.limit(offset + mapped.getInt(entry + 12));
+                return record.slice();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 比较文件里的 key 和要查找的 key，按无符号字节的字典序
+     */
+    private int compareKey(int keyOffset, byte[] keyBytes) {
+        int length = mapped.getInt(keyOffset);
+        int min = Math.min(length, keyBytes.length);
+        for (int i = 0; i < min; i++) {
+            int a = mapped.get(keyOffset + 4 + i) & 0xFF;
+            int b = keyBytes[i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - keyBytes.length;
+    }
+
+    /**
+     * 写字符串：int 字节长度（null 为 -1）+ UTF-8 字节
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 快照文件的生成器，通常在构建或者首次运行时使用
+     */
+    public static class Writer<T> {
+
+        private final TemplateCodec<T> codec;
+        private final ArrayList<Entry> entries = new ArrayList<>();
+
+        public Writer(TemplateCodec<T> codec) {
+            this.codec = codec;
+        }
+
+        public Writer<T> put(String key, T template) throws IOException {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(record);
+            codec.write(template, out);
+            out.flush();
+            entries.add(new Entry(key, key.getBytes(UTF_8), record.toByteArray()));
+            return this;
+        }
+
+        public void writeTo(File file) throws IOException {
+            Collections.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    int hashA = a.key.hashCode();
+                    int hashB = b.key.hashCode();
+                    if (hashA != hashB) {
+                        return hashA < hashB ? -1 : 1;
+                    }
+                    return compareBytes(a.keyBytes, b.keyBytes);
+                }
+            });
+            for (int i = 1; i < entries.size(); i++) {
+                if (entries.get(i - 1).key.equals(entries.get(i).key)) {
+                    throw new IllegalStateException("Duplicate template key " + entries.get(i).key);
+                }
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                int offset = HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE;
+                for (Entry entry : entries) {
+                    out.writeInt(entry.key.hashCode());
+                    out.writeInt(offset);
+                    offset += 4 + entry.keyBytes.length;
+                    out.writeInt(offset);
+                    out.writeInt(entry.record.length);
+                    offset += entry.record.length;
+                }
+                for (Entry entry : entries) {
+                    out.writeInt(entry.keyBytes.length);
+                    out.write(entry.keyBytes);
+                    out.write(entry.record);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private static int compareBytes(byte[] a, byte[] b) {
+            int min = Math.min(a.length, b.length);
+            for (int i = 0; i < min; i++) {
+                int x = a[i] & 0xFF;
+                int y = b[i] & 0xFF;
+                if (x != y) {
+                    return x - y;
+                }
+            }
+            return a.length - b.length;
+        }
+
+        private static class Entry {
+            final String key;
+            final byte[] keyBytes;
+            final byte[] record;
+
+            Entry(String key, byte[] keyBytes, byte[] record) {
+                this.key = key;
+                this.keyBytes = keyBytes;
+                this.record = record;
+            }
+        }
+    }
+}
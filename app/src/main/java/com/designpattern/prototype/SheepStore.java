@@ -0,0 +1,255 @@
+package com.designpattern.prototype;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 列式的原型存储：用来保存几百万个 Prototype.Sheep 这样的克隆对象。
+ * <p>
+ * 每个 Sheep 对象只有一个 int age 和一个 String name，但是对象头、引用和指针跳转占了大部分内存和 GC 时间。
+ * 列式存储把每个字段放在一个数组里（struct-of-arrays）：
+ * 1。ages：int[]，每一行一个年龄。
+ * 2。nameCodes：int[]，每一行一个名字编号，名字本身放在去重的字典里，相同的名字只存一份。
+ * <p>
+ * 一行就是一只羊，用行号访问，不再创建对象；需要对象时通过游标（Cursor）或者 SheepAdapter 转换。
+ * 从原型克隆就是追加一行，复制原型那一行的两个 int。
+ * <p>
+ * 该类不是线程安全的。
+ */
+public class SheepStore {
+
+    /**
+     * 和真正的 Sheep 对象互相转换
+     */
+    public interface SheepAdapter<T> {
+        int getAge(T sheep);
+
+        String getName(T sheep);
+
+        T newSheep(int age, String name);
+    }
+
+    /**
+     * 按行遍历
+     */
+    public interface RowVisitor {
+        void visit(int row, int age, String name);
+    }
+
+    /**
+     * 批量修改年龄，返回新的年龄
+     */
+    public interface AgeUpdater {
+        int update(int row, int age);
+    }
+
+    private int[] ages;
+    private int[] nameCodes;
+    private int size;
+
+    private String[] names = new String[16];
+    private int nameCount;
+    private final HashMap<String, Integer> nameIndex = new HashMap<>();
+
+    public SheepStore() {
+        this(16);
+    }
+
+    public SheepStore(int initialCapacity) {
+        ages = new int[Math.max(initialCapacity, 1)];
+        nameCodes = new int[ages.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 字典里不同名字的个数
+     */
+    public int nameCount() {
+        return nameCount;
+    }
+
+    /**
+     * 追加一行，返回行号
+     */
+    public int append(int age, String name) {
+        return appendRow(age, codeOf(name));
+    }
+
+    /**
+     * 从原型那一行克隆，追加到末尾，返回新行的行号
+     */
+    public int cloneRow(int prototypeRow) {
+        checkRow(prototypeRow);
+        return appendRow(ages[prototypeRow], nameCodes[prototypeRow]);
+    }
+
+    /**
+     * 从原型那一行克隆 count 行，返回第一行的行号
+     */
+    public int cloneRows(int prototypeRow, int count) {
+        checkRow(prototypeRow);
+        ensureCapacity(size + count);
+        int first = size;
+        Arrays.fill(ages, first, first + count, ages[prototypeRow]);
+        Arrays.fill(nameCodes, first, first + count, nameCodes[prototypeRow]);
+        size += count;
+        return first;
+    }
+
+    public int getAge(int row) {
+        checkRow(row);
+        return ages[row];
+    }
+
+    public void setAge(int row, int age) {
+        checkRow(row);
+        ages[row] = age;
+    }
+
+    public String getName(int row) {
+        checkRow(row);
+        return names[nameCodes[row]];
+    }
+
+    public void setName(int row, String name) {
+        checkRow(row);
+        nameCodes[row] = codeOf(name);
+    }
+
+    public void forEach(RowVisitor visitor) {
+        int[] ages = this.ages;
+        int[] nameCodes = this.nameCodes;
+        String[] names = this.names;
+        for (int row = 0, size = this.size; row < size; row++) {
+            visitor.visit(row, ages[row], names[nameCodes[row]]);
+        }
+    }
+
+    public void updateAges(AgeUpdater updater) {
+        int[] ages = this.ages;
+        for (int row = 0, size = this.size; row < size; row++) {
+            ages[row] = updater.update(row, ages[row]);
+        }
+    }
+
+    /**
+     * 所有的年龄加上 delta，只是一个遍历 int[] 的循环
+     */
+    public void addToAllAges(int delta) {
+        int[] ages = this.ages;
+        for (int row = 0, size = this.size; row < size; row++) {
+            ages[row] += delta;
+        }
+    }
+
+    /**
+     * 把名字为 from 的行全部改名为 to，只比较 int 编号
+     */
+    public int renameAll(String from, String to) {
+        Integer fromCode = nameIndex.get(from);
+        if (fromCode == null) {
+            return 0;
+        }
+        int source = fromCode;
+        int target = codeOf(to);
+        int[] nameCodes = this.nameCodes;
+        int changed = 0;
+        for (int row = 0, size = this.size; row < size; row++) {
+            if (nameCodes[row] == source) {
+                nameCodes[row] = target;
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    public <T> int add(T sheep, SheepAdapter<T> adapter) {
+        return append(adapter.getAge(sheep), adapter.getName(sheep));
+    }
+
+    public <T> T toSheep(int row, SheepAdapter<T> adapter) {
+        checkRow(row);
+        return adapter.newSheep(ages[row], names[nameCodes[row]]);
+    }
+
+    /**
+     * 游标：一个可以移动的轻量视图，遍历时只需要一个游标对象
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public class Cursor {
+        private int row = -1;
+
+        public boolean moveToNext() {
+            if (row + 1 >= size) {
+                return false;
+            }
+            row++;
+            return true;
+        }
+
+        public void moveTo(int row) {
+            checkRow(row);
+            this.row = row;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getAge() {
+            return ages[row];
+        }
+
+        public void setAge(int age) {
+            ages[row] = age;
+        }
+
+        public String getName() {
+            return names[nameCodes[row]];
+        }
+
+        public void setName(String name) {
+            nameCodes[row] = codeOf(name);
+        }
+    }
+
+    private int appendRow(int age, int nameCode) {
+        ensureCapacity(size + 1);
+        ages[size] = age;
+        nameCodes[size] = nameCode;
+        return size++;
+    }
+
+    private int codeOf(String name) {
+        Integer code = nameIndex.get(name);
+        if (code == null) {
+            if (nameCount == names.length) {
+                names = Arrays.copyOf(names, nameCount * 2);
+            }
+            code = nameCount;
+            names[nameCount++] = name;
+            nameIndex.put(name, code);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ages.length) {
+            int newCapacity = Math.max(capacity, ages.length + (ages.length >> 1));
+            ages = Arrays.copyOf(ages, newCapacity);
+            nameCodes = Arrays.copyOf(nameCodes, newCapacity);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row=" + row + ", size=" + size);
+        }
+    }
+}
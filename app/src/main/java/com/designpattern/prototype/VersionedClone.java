@@ -0,0 +1,172 @@
+package com.designpattern.prototype;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多版本快照（MVCC）：读线程拿到的快照永远不需要拷贝。
+ * <p>
+ * DeepClone 常见的用法是：写线程一直在修改对象，读线程需要一个一致的副本，于是每次都做一次完整的深克隆。
+ * 多版本的做法：
+ * 1。每个版本的对象都是不可变的。
+ * 2。写线程修改时只复制被修改的节点以及从根到它的路径（路径复制），没有修改的子对象在新旧版本之间共用。
+ * 3。新版本通过 CAS 原子地替换当前版本，读线程获取快照只是读一次引用，O(1) 且不加锁。
+ * 4。旧版本没有读线程持有时，由 GC 自动回收，不需要手动释放。
+ */
+public class VersionedClone {
+
+    private String TAG = "VersionedClone";
+
+    public void versionedCloen() {
+        Versioned<XiaoA> versioned = new Versioned<>(new XiaoA("xiaoA", 25, new Limb(2, "双手")));
+
+        Snapshot<XiaoA> reader = versioned.snapshot();
+        Log.d(TAG, "reader : " + reader);
+
+        Snapshot<XiaoA> renamed = versioned.update(new Updater<XiaoA>() {
+            @Override
+            public XiaoA apply(XiaoA current) {
+                return current.withName("xiaoAa").withAge(30);
+            }
+        });
+        Log.d(TAG, "renamed : " + renamed + " , limb shared : " + (renamed.value.limb == reader.value.limb));
+
+        Snapshot<XiaoA> changed = versioned.update(new Updater<XiaoA>() {
+            @Override
+            public XiaoA apply(XiaoA current) {
+                return current.withLimb(current.limb.withZise(4).withName("双脚"));
+            }
+        });
+        Log.d(TAG, "changed : " + changed + " , limb shared : " + (changed.value.limb == reader.value.limb));
+        Log.d(TAG, "reader : " + reader);
+    }
+
+    /**
+     * 写线程的修改：根据当前版本返回新版本，不能修改当前版本
+     * 发生竞争时会被重复调用，所以不要有副作用
+     */
+    public interface Updater<T> {
+        T apply(T current);
+    }
+
+    /**
+     * 不可变的快照
+     */
+    public static final class Snapshot<T> {
+        public final long version;
+        public final T value;
+
+        Snapshot(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "version=" + version +
+                    ", value=" + value +
+                    '}';
+        }
+    }
+
+    /**
+     * 多版本容器，T 必须是不可变的
+     */
+    public static class Versioned<T> {
+
+        private final AtomicReference<Snapshot<T>> current;
+
+        public Versioned(T initial) {
+            current = new AtomicReference<>(new Snapshot<>(0, initial));
+        }
+
+        /**
+         * 当前版本的快照，O(1)，不加锁
+         */
+        public Snapshot<T> snapshot() {
+            return current.get();
+        }
+
+        /**
+         * 生成并发布一个新版本
+         * @return 新版本的快照
+         */
+        public Snapshot<T> update(Updater<T> updater) {
+            while (true) {
+                Snapshot<T> snapshot = current.get();
+                T value = updater.apply(snapshot.value);
+                if (value == snapshot.value) {
+                    return snapshot;
+                }
+                Snapshot<T> next = new Snapshot<>(snapshot.version + 1, value);
+                if (current.compareAndSet(snapshot, next)) {
+                    return next;
+                }
+            }
+        }
+    }
+
+    /**
+     * 不可变的 XiaoA，修改时返回新对象，limb 没有修改时直接共用
+     */
+    private static final class XiaoA {
+        private final String name;
+        private final int age;
+        private final Limb limb;
+
+        XiaoA(String name, int age, Limb limb) {
+            this.name = name;
+            this.age = age;
+            this.limb = limb;
+        }
+
+        XiaoA withName(String name) {
+            return new XiaoA(name, age, limb);
+        }
+
+        XiaoA withAge(int age) {
+            return new XiaoA(name, age, limb);
+        }
+
+        XiaoA withLimb(Limb limb) {
+            return new XiaoA(name, age, limb);
+        }
+
+        @Override
+        public String toString() {
+            return "XiaoA{" +
+                    "name='" + name + '\'' +
+                    ", age=" + age +
+                    ", limb=" + limb +
+                    '}';
+        }
+    }
+
+    private static final class Limb {
+        private final int zise;
+        private final String name;
+
+        Limb(int zise, String name) {
+            this.zise = zise;
+            this.name = name;
+        }
+
+        Limb withZise(int zise) {
+            return new Limb(zise, name);
+        }
+
+        Limb withName(String name) {
+            return new Limb(zise, name);
+        }
+
+        @Override
+        public String toString() {
+            return "Limb{" +
+                    "zise=" + zise +
+                    ", name='" + name + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.designpattern.composite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 组合树的差异：应用之后旧树和新树结构相同；改名、同一父节点内的重排、跨父节点的移动分别生成 UPDATE 和 MOVE；
+ * 比较之后树被修改过，或者应用第二次时拒绝应用
+ */
+public class CompositeDiffTest {
+
+    private CompositePattern pattern;
+    private CompositeDiff diff;
+    private CompositePattern.Composite oldRoot;
+    private CompositePattern.Composite oldA;
+    private CompositePattern.Composite oldB;
+    private CompositePattern.Composite oldC;
+
+    /**
+     * root(A(a1, a2), B(b1, C(c1, c2)), l1, l2, l3)
+     */
+    @Before
+    public void setUp() {
+        pattern = new CompositePattern();
+        diff = new CompositeDiff(pattern);
+        oldC = composite("C", leaf("c1"), leaf("c2"));
+        oldA = composite("A", leaf("a1"), leaf("a2"));
+        oldB = composite("B", leaf("b1"), oldC);
+        oldRoot = composite("root", oldA, oldB, leaf("l1"), leaf("l2"), leaf("l3"));
+    }
+
+    private CompositePattern.Leaf leaf(String name) {
+        return pattern.new Leaf(name);
+    }
+
+    private CompositePattern.Composite composite(String name, CompositePattern.Component... children) {
+        CompositePattern.Composite composite = pattern.new Composite(name);
+        for (CompositePattern.Component child : children) {
+            composite.add(child);
+        }
+        return composite;
+    }
+
+    private CompositePattern.Component copyOf(CompositePattern.Component node) {
+        if (node instanceof CompositePattern.Leaf) {
+            return leaf(((CompositePattern.Leaf) node).getName());
+        }
+        CompositePattern.Composite copy = composite(((CompositePattern.Composite) node).getName());
+        for (int i = 0; i < node.getChildCount(); i++) {
+            copy.add(copyOf(node.getChild(i)));
+        }
+        return copy;
+    }
+
+    private static String dump(CompositePattern.Component node) {
+        StringBuilder builder = new StringBuilder(CompositeDiff.nameOf(node));
+        if (node instanceof CompositePattern.Composite) {
+            builder.append('(');
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(dump(node.getChild(i)));
+            }
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 从 root 开始按名字逐层查找子节点
+     */
+    private static CompositePattern.Component find(CompositePattern.Component root, String... names) {
+        CompositePattern.Component node = root;
+        for (String name : names) {
+            CompositePattern.Component found = null;
+            for (int i = 0; i < node.getChildCount() && found == null; i++) {
+                if (CompositeDiff.nameOf(node.getChild(i)).equals(name)) {
+                    found = node.getChild(i);
+                }
+            }
+            assertNotNull(name, found);
+            node = found;
+        }
+        return node;
+    }
+
+    @Test
+    public void applyMakesOldTreeMatchNewTree() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        CompositePattern.Composite newB = (CompositePattern.Composite) find(newRoot, "B");
+        CompositePattern.Composite newC = (CompositePattern.Composite) find(newB, "C");
+        ((CompositePattern.Composite) find(newRoot, "A")).setName("A2");
+        newB.remove(newC);
+        ((CompositePattern.Composite) find(newRoot, "A2")).add(0, newC);
+        newC.add(leaf("c3"));
+        newRoot.remove(find(newRoot, "l2"));
+        newRoot.add(1, composite("D", leaf("d1")));
+        ((CompositePattern.Leaf) find(newRoot, "l1")).setName("l1x");
+
+        CompositeDiff.Patch patch = diff.diff(oldRoot, newRoot);
+        assertFalse(patch.isEmpty());
+        patch.apply();
+        assertEquals(dump(newRoot), dump(oldRoot));
+        assertEquals(diff.hash(newRoot), diff.hash(oldRoot));
+        assertTrue(diff.diff(oldRoot, newRoot).isEmpty());
+    }
+
+    @Test
+    public void identicalTreesHaveEmptyDiff() {
+        assertTrue(diff.diff(oldRoot, copyOf(oldRoot)).isEmpty());
+    }
+
+    @Test
+    public void renameIsUpdate() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        ((CompositePattern.Composite) find(newRoot, "B")).setName("B2");
+
+        List<CompositeDiff.Op> ops = diff.diff(oldRoot, newRoot).getOps();
+        assertEquals(1, ops.size());
+        CompositeDiff.Op op = ops.get(0);
+        assertEquals(CompositeDiff.Op.Type.UPDATE, op.getType());
+        assertSame(oldB, op.getNode());
+        assertEquals("B2", op.getName());
+    }
+
+    @Test
+    public void reorderWithinParentIsMove() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        CompositePattern.Component newL3 = find(newRoot, "l3");
+        newRoot.remove(newL3);
+        newRoot.add(2, newL3);
+
+        List<CompositeDiff.Op> ops = diff.diff(oldRoot, newRoot).getOps();
+        assertEquals(1, ops.size());
+        CompositeDiff.Op op = ops.get(0);
+        assertEquals(CompositeDiff.Op.Type.MOVE, op.getType());
+        assertSame(oldRoot, op.getFrom());
+        assertSame(oldRoot, op.getTo());
+        assertSame(find(oldRoot, "l3"), op.getNode());
+        assertEquals(2, op.getIndex());
+    }
+
+    @Test
+    public void subtreeMovedToAnotherParentIsMove() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        CompositePattern.Composite newB = (CompositePattern.Composite) find(newRoot, "B");
+        CompositePattern.Component newC = find(newB, "C");
+        newB.remove(newC);
+        ((CompositePattern.Composite) find(newRoot, "A")).add(newC);
+
+        CompositeDiff.Patch patch = diff.diff(oldRoot, newRoot);
+        List<CompositeDiff.Op> ops = patch.getOps();
+        assertEquals(1, ops.size());
+        CompositeDiff.Op op = ops.get(0);
+        assertEquals(CompositeDiff.Op.Type.MOVE, op.getType());
+        assertSame(oldB, op.getFrom());
+        assertSame(oldA, op.getTo());
+        assertSame(oldC, op.getNode());
+        assertEquals(2, op.getIndex());
+
+        // 移动的是旧树里原来的子树，不是新树的副本
+        patch.apply();
+        assertSame(oldC, oldA.getChild(2));
+        assertEquals(1, oldB.getChildCount());
+        assertEquals(dump(newRoot), dump(oldRoot));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void applyAfterModificationFails() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        newRoot.add(leaf("l4"));
+        CompositeDiff.Patch patch = diff.diff(oldRoot, newRoot);
+        oldA.add(leaf("a3"));
+        patch.apply();
+    }
+
+    @Test
+    public void applyTwiceFails() {
+        CompositePattern.Composite newRoot = (CompositePattern.Composite) copyOf(oldRoot);
+        newRoot.add(leaf("l4"));
+        CompositeDiff.Patch patch = diff.diff(oldRoot, newRoot);
+        patch.apply();
+        try {
+            patch.apply();
+            fail("a patch can be applied only once");
+        } catch (IllegalStateException expected) {
+            assertEquals("Patch already applied", expected.getMessage());
+        }
+        assertEquals(dump(newRoot), dump(oldRoot));
+    }
+}
@@ -0,0 +1,135 @@
+package com.designpattern.composite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch 的修改一次发布：读线程看不到一半的修改；commit 失败时什么也不发布
+ */
+public class ConcurrentCompositeTest {
+
+    private ConcurrentComposite tree;
+
+    @Before
+    public void setUp() {
+        tree = new ConcurrentComposite("root");
+        tree.add("root", ConcurrentComposite.composite("Node1", ConcurrentComposite.leaf("Leaf1")));
+        tree.add("root", ConcurrentComposite.composite("Node2"));
+    }
+
+    @Test
+    public void batchIsVisibleOnlyAfterCommit() {
+        ConcurrentComposite.Node before = tree.snapshot();
+        ConcurrentComposite.Batch batch = tree.batch()
+                .add("root/Node1", ConcurrentComposite.leaf("Leaf2"))
+                .add("root/Node2", ConcurrentComposite.leaf("Leaf3"))
+                .remove("root/Node1", "Leaf1");
+        assertSame(before, tree.snapshot());
+
+        batch.commit();
+        assertNotNull(tree.find("root/Node1/Leaf2"));
+        assertNotNull(tree.find("root/Node2/Leaf3"));
+        assertNull(tree.find("root/Node1/Leaf1"));
+        // 旧的快照不受影响
+        assertNotNull(ConcurrentComposite.find(before, "root/Node1/Leaf1"));
+        assertNull(ConcurrentComposite.find(before, "root/Node1/Leaf2"));
+        assertNull(ConcurrentComposite.find(before, "root/Node2/Leaf3"));
+    }
+
+    @Test
+    public void unchangedSubtreesAreShared() {
+        ConcurrentComposite.Node before = tree.snapshot();
+        tree.add("root/Node2", ConcurrentComposite.leaf("Leaf3"));
+        assertSame(ConcurrentComposite.find(before, "root/Node1"), tree.find("root/Node1"));
+        assertNotSame(ConcurrentComposite.find(before, "root/Node2"), tree.find("root/Node2"));
+    }
+
+    @Test
+    public void failedCommitPublishesNothing() {
+        ConcurrentComposite.Node before = tree.snapshot();
+        ConcurrentComposite.Batch batch = tree.batch()
+                .add("root/Node1", ConcurrentComposite.leaf("Leaf2"))
+                .remove("root/Node2", "Missing");
+        try {
+            batch.commit();
+            fail("remove of a missing child should fail");
+        } catch (IllegalArgumentException expected) {
+            // 第一个修改已经在副本上执行了，但没有发布
+        }
+        assertSame(before, tree.snapshot());
+        assertNull(tree.find("root/Node1/Leaf2"));
+    }
+
+    @Test
+    public void addUnderLeafOrMissingParentPublishesNothing() {
+        ConcurrentComposite.Node before = tree.snapshot();
+        try {
+            tree.batch()
+                    .add("root/Node2", ConcurrentComposite.leaf("Leaf3"))
+                    .add("root/Node1/Leaf1", ConcurrentComposite.leaf("Leaf4"))
+                    .commit();
+            fail("add under a leaf should fail");
+        } catch (IllegalArgumentException expected) {
+            // 树叶不能有子节点
+        }
+        try {
+            tree.batch()
+                    .add("root/Node2", ConcurrentComposite.leaf("Leaf3"))
+                    .add("root/Node3", ConcurrentComposite.leaf("Leaf4"))
+                    .commit();
+            fail("add under a missing parent should fail");
+        } catch (IllegalArgumentException expected) {
+            // 父节点不存在
+        }
+        assertSame(before, tree.snapshot());
+    }
+
+    /**
+     * 每个 batch 在 Node1 和 Node2 下各加一个树叶，读线程的每个快照里两边的个数都相同
+     */
+    @Test
+    public void readersNeverSeeHalfABatch() throws Exception {
+        final int rounds = 2000;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(2);
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (!done.get() && failure.get() == null) {
+                        ConcurrentComposite.Node snapshot = tree.snapshot();
+                        int left = ConcurrentComposite.find(snapshot, "root/Node1").getChildCount() - 1;
+                        int right = ConcurrentComposite.find(snapshot, "root/Node2").getChildCount();
+                        if (left != right) {
+                            failure.set("Node1 has " + left + " new leaves, Node2 has " + right);
+                        }
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        started.await();
+        for (int i = 0; i < rounds; i++) {
+            tree.batch()
+                    .add("root/Node1", ConcurrentComposite.leaf("Extra" + i))
+                    .add("root/Node2", ConcurrentComposite.leaf("Extra" + i))
+                    .commit();
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(rounds + 1, tree.find("root/Node1").getChildCount());
+        assertEquals(rounds, tree.find("root/Node2").getChildCount());
+    }
+}
@@ -0,0 +1,185 @@
+package com.designpattern.composite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 并行遍历的结果和单线程遍历相同；取消只影响自己这一次遍历
+ */
+public class ParallelTraversalTest {
+
+    private CompositePattern pattern;
+
+    @Before
+    public void setUp() {
+        pattern = new CompositePattern();
+    }
+
+    private CompositePattern.Component wide(int branches) {
+        CompositePattern.Component root = pattern.new Composite("root");
+        for (int i = 0; i < branches; i++) {
+            CompositePattern.Component branch = pattern.new Composite("Node" + i);
+            for (int j = 0; j < branches; j++) {
+                branch.add(pattern.new Leaf("Leaf" + j));
+            }
+            root.add(branch);
+        }
+        return root;
+    }
+
+    private CompositePattern.Component deep(int depth) {
+        CompositePattern.Component root = pattern.new Composite("root");
+        CompositePattern.Component current = root;
+        for (int i = 0; i < depth; i++) {
+            CompositePattern.Component next = pattern.new Composite("Node" + i);
+            current.add(pattern.new Leaf("Leaf" + i));
+            current.add(next);
+            current = next;
+        }
+        return root;
+    }
+
+    private CompositePattern.Component skewed(int branches) {
+        CompositePattern.Component root = pattern.new Composite("root");
+        root.add(wide(branches));
+        for (int i = 0; i < branches; i++) {
+            root.add(pattern.new Leaf("Leaf" + i));
+        }
+        return root;
+    }
+
+    /**
+     * 每个节点的结果是它的 identityHashCode 和 1（节点个数），漏掉或者重复访问节点时结果都会不同
+     */
+    private static ParallelTraversal<CompositePattern.Component, long[]> hashTraversal(int threshold) {
+        return new ParallelTraversal<>(TreeAdapter.COMPONENT,
+                new ParallelTraversal.NodeVisitor<CompositePattern.Component, long[]>() {
+                    @Override
+                    public long[] visit(CompositePattern.Component node) {
+                        return new long[]{System.identityHashCode(node), 1};
+                    }
+                },
+                new ParallelTraversal.Combiner<long[]>() {
+                    @Override
+                    public long[] combine(long[] a, long[] b) {
+                        return new long[]{a[0] + b[0], a[1] + b[1]};
+                    }
+                }, new long[2], threshold);
+    }
+
+    private static ParallelTraversal<CompositePattern.Component, Long> countTraversal(
+            final ParallelTraversal.NodeVisitor<CompositePattern.Component, Long> visitor) {
+        return new ParallelTraversal<>(TreeAdapter.COMPONENT, visitor,
+                new ParallelTraversal.Combiner<Long>() {
+                    @Override
+                    public Long combine(Long a, Long b) {
+                        return a + b;
+                    }
+                }, 0L, 16);
+    }
+
+    @Test
+    public void parallelResultEqualsSequential() {
+        CompositePattern.Component[] trees = {wide(100), deep(5000), skewed(100), pattern.new Leaf("single")};
+        for (int threshold : new int[]{1, 7, ParallelTraversal.DEFAULT_THRESHOLD}) {
+            ParallelTraversal<CompositePattern.Component, long[]> traversal = hashTraversal(threshold);
+            for (CompositePattern.Component tree : trees) {
+                long[] sequential = traversal.invokeSequential(tree);
+                assertArrayEquals(sequential, traversal.invokeParallel(tree, new ParallelTraversal.Cancellation()));
+                assertArrayEquals(sequential, traversal.invoke(tree));
+            }
+        }
+        assertEquals(1 + 100 + 100 * 100, hashTraversal(1).invokeSequential(wide(100))[1]);
+    }
+
+    @Test
+    public void sequentialCancellationStopsBeforeNextNode() {
+        final ParallelTraversal.Cancellation cancellation = new ParallelTraversal.Cancellation();
+        final AtomicInteger visited = new AtomicInteger();
+        ParallelTraversal<CompositePattern.Component, Long> traversal = countTraversal(
+                new ParallelTraversal.NodeVisitor<CompositePattern.Component, Long>() {
+                    @Override
+                    public Long visit(CompositePattern.Component node) {
+                        if (visited.incrementAndGet() == 100) {
+                            cancellation.cancel();
+                        }
+                        return 1L;
+                    }
+                });
+        assertEquals(100L, (long) traversal.invokeSequential(wide(100), cancellation));
+        assertEquals(100, visited.get());
+        assertTrue(cancellation.isCancelled());
+    }
+
+    @Test
+    public void parallelCancellationStopsWork() {
+        final ParallelTraversal.Cancellation cancellation = new ParallelTraversal.Cancellation();
+        final AtomicInteger visited = new AtomicInteger();
+        ParallelTraversal<CompositePattern.Component, Long> traversal = countTraversal(
+                new ParallelTraversal.NodeVisitor<CompositePattern.Component, Long>() {
+                    @Override
+                    public Long visit(CompositePattern.Component node) {
+                        if (visited.incrementAndGet() == 100) {
+                            cancellation.cancel();
+                        }
+                        return 1L;
+                    }
+                });
+        long total = 1 + 300 + 300 * 300;
+        long result = traversal.invokeParallel(wide(300), cancellation);
+        // 每个线程最多在看到取消之前再处理一个节点
+        assertTrue("visited " + visited.get(), visited.get() < 100 + 2 * Runtime.getRuntime().availableProcessors());
+        assertEquals(visited.get(), result);
+        assertTrue(result < total);
+    }
+
+    @Test
+    public void cancellingOneInvocationDoesNotAffectAnother() throws Exception {
+        final CompositePattern.Component blockedRoot = wide(10);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ParallelTraversal<CompositePattern.Component, Long> traversal = countTraversal(
+                new ParallelTraversal.NodeVisitor<CompositePattern.Component, Long>() {
+                    @Override
+                    public Long visit(CompositePattern.Component node) {
+                        if (node == blockedRoot) {
+                            entered.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        return 1L;
+                    }
+                });
+        final ParallelTraversal.Cancellation first = new ParallelTraversal.Cancellation();
+        final AtomicLong firstResult = new AtomicLong(-1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                firstResult.set(traversal.invokeSequential(blockedRoot, first));
+            }
+        });
+        thread.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // 第一次遍历还没有结束时开始第二次遍历，然后取消第一次
+        ParallelTraversal.Cancellation second = new ParallelTraversal.Cancellation();
+        first.cancel();
+        assertEquals(1L + 200 + 200 * 200, (long) traversal.invokeParallel(wide(200), second));
+        assertFalse(second.isCancelled());
+
+        release.countDown();
+        thread.join(10000);
+        // 第一次遍历只处理了根节点
+        assertEquals(1L, firstResult.get());
+    }
+}
@@ -0,0 +1,198 @@
+package com.designpattern.composite;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * 组合树的 Spliterator：偏斜的树和空的树枝；并行流和顺序流的节点和顺序相同；
+ * SIZED 时每次拆分后的 estimateSize 和实际遍历的个数相同；带 keep 的并行流和顺序流个数相同
+ */
+public class TreeSpliteratorTest {
+
+    private static final int CHAIN = 2000;
+    private static final int FAN_LEAVES = 1000;
+    private static final int FAN_GROUPS = 100;
+
+    private CompositePattern pattern;
+    private CompositePattern.Composite root;
+
+    /**
+     * root(chain0(x, chain1(x, chain2(...))), fan(leaf0 ... leaf999, group0(g0 ... g4) ... group99(...)))
+     */
+    @Before
+    public void setUp() {
+        pattern = new CompositePattern();
+        root = pattern.new Composite("root");
+        CompositePattern.Composite chain = pattern.new Composite("chain0");
+        root.add(chain);
+        for (int i = 1; i < CHAIN; i++) {
+            CompositePattern.Composite next = pattern.new Composite("chain" + i);
+            chain.add(pattern.new Leaf("x"));
+            chain.add(next);
+            chain = next;
+        }
+        CompositePattern.Composite fan = pattern.new Composite("fan");
+        root.add(fan);
+        for (int i = 0; i < FAN_LEAVES; i++) {
+            fan.add(pattern.new Leaf("leaf" + i));
+        }
+        for (int i = 0; i < FAN_GROUPS; i++) {
+            CompositePattern.Composite group = pattern.new Composite("group" + i);
+            for (int k = 0; k < 5; k++) {
+                group.add(pattern.new Leaf("g" + k));
+            }
+            fan.add(group);
+        }
+    }
+
+    /**
+     * 先序遍历，用来和 Spliterator 的结果比较
+     */
+    private static List<CompositePattern.Component> preorder(CompositePattern.Component root) {
+        List<CompositePattern.Component> nodes = new ArrayList<>();
+        ArrayDeque<CompositePattern.Component> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            CompositePattern.Component node = stack.pop();
+            nodes.add(node);
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                stack.push(node.getChild(i));
+            }
+        }
+        return nodes;
+    }
+
+    private static List<CompositePattern.Component> collect(Spliterator<CompositePattern.Component> spliterator) {
+        final List<CompositePattern.Component> nodes = new ArrayList<>();
+        spliterator.forEachRemaining(new Consumer<CompositePattern.Component>() {
+            @Override
+            public void accept(CompositePattern.Component node) {
+                nodes.add(node);
+            }
+        });
+        return nodes;
+    }
+
+    private static List<CompositePattern.Component> collectOrdered(CompositePattern.Component root, boolean parallel) {
+        final List<CompositePattern.Component> nodes = Collections.synchronizedList(
+                new ArrayList<CompositePattern.Component>());
+        TreeSpliterator.stream(TreeAdapter.COMPONENT, root, parallel).forEachOrdered(
+                new Consumer<CompositePattern.Component>() {
+                    @Override
+                    public void accept(CompositePattern.Component node) {
+                        nodes.add(node);
+                    }
+                });
+        return nodes;
+    }
+
+    private static String nameOf(CompositePattern.Component node) {
+        return node instanceof CompositePattern.Composite
+                ? ((CompositePattern.Composite) node).getName() : ((CompositePattern.Leaf) node).getName();
+    }
+
+    @Test
+    public void parallelStreamHasSameNodesInSameOrder() {
+        List<CompositePattern.Component> expected = preorder(root);
+        assertEquals(1 + 2 * CHAIN - 1 + 1 + FAN_LEAVES + FAN_GROUPS * 6, expected.size());
+        assertEquals(expected, collectOrdered(root, false));
+        assertEquals(expected, collectOrdered(root, true));
+        assertEquals(expected.size(), TreeSpliterator.stream(TreeAdapter.COMPONENT, root, true).count());
+        // 链的最后一个节点是空的树枝，不是树叶
+        assertEquals(CHAIN - 1 + FAN_LEAVES + FAN_GROUPS * 5,
+                TreeSpliterator.leafStream(TreeAdapter.COMPONENT, root, true).count());
+    }
+
+    /**
+     * 反复拆分：拆分前的 estimateSize 等于两半之和，不能再拆时等于实际遍历的个数；按先遍历的一半在前拼起来是先序
+     */
+    @Test
+    public void estimateSizeMatchesTraversedNodesAfterEachSplit() {
+        TreeSpliterator<CompositePattern.Component> spliterator =
+                new TreeSpliterator<>(TreeAdapter.COMPONENT, (CompositePattern.Component) root, null, true);
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        List<CompositePattern.Component> traversed = new ArrayList<>();
+        int[] splits = new int[1];
+        split(spliterator, traversed, splits);
+        assertEquals(preorder(root), traversed);
+        // 偏斜的链和扇形分支都能拆开，不是只拆出一两个
+        assertTrue("only " + splits[0] + " splits", splits[0] > 100);
+    }
+
+    private static void split(Spliterator<CompositePattern.Component> spliterator,
+                              List<CompositePattern.Component> traversed, int[] splits) {
+        long estimate = spliterator.estimateSize();
+        Spliterator<CompositePattern.Component> prefix = estimate > 8 ? spliterator.trySplit() : null;
+        if (prefix == null) {
+            List<CompositePattern.Component> nodes = collect(spliterator);
+            assertEquals(estimate, nodes.size());
+            traversed.addAll(nodes);
+            return;
+        }
+        splits[0]++;
+        assertTrue(prefix.hasCharacteristics(Spliterator.SIZED));
+        long prefixSize = prefix.estimateSize();
+        long restSize = spliterator.estimateSize();
+        assertTrue(prefixSize > 0 && restSize > 0);
+        assertEquals(estimate, prefixSize + restSize);
+        split(prefix, traversed, splits);
+        split(spliterator, traversed, splits);
+    }
+
+    @Test
+    public void emptyCompositeIsOneNodeAndNoLeaves() {
+        CompositePattern.Composite empty = pattern.new Composite("empty");
+        for (boolean parallel : new boolean[]{false, true}) {
+            assertEquals(Collections.singletonList(empty), collectOrdered(empty, parallel));
+            assertEquals(0, TreeSpliterator.leafStream(TreeAdapter.COMPONENT, empty, parallel).count());
+        }
+        TreeSpliterator<CompositePattern.Component> spliterator =
+                new TreeSpliterator<>(TreeAdapter.COMPONENT, (CompositePattern.Component) empty, null, true);
+        assertEquals(1, spliterator.estimateSize());
+        assertNull(spliterator.trySplit());
+        assertEquals(Collections.<CompositePattern.Component>singletonList(empty), collect(spliterator));
+    }
+
+    /**
+     * 跳过链的后半段、三分之一的 group 和名字是奇数的树叶
+     */
+    @Test
+    public void prunedParallelStreamMatchesSequential() {
+        Predicate<CompositePattern.Component> keep = new Predicate<CompositePattern.Component>() {
+            @Override
+            public boolean test(CompositePattern.Component node) {
+                String name = nameOf(node);
+                if (name.startsWith("chain")) {
+                    return Integer.parseInt(name.substring(5)) < CHAIN / 2;
+                }
+                if (name.startsWith("group")) {
+                    return Integer.parseInt(name.substring(5)) % 3 != 0;
+                }
+                if (name.startsWith("leaf")) {
+                    return Integer.parseInt(name.substring(4)) % 2 == 0;
+                }
+                return true;
+            }
+        };
+        long sequential = TreeSpliterator.prunedStream(TreeAdapter.COMPONENT,
+                (CompositePattern.Component) root, keep, false).count();
+        long parallel = TreeSpliterator.prunedStream(TreeAdapter.COMPONENT,
+                (CompositePattern.Component) root, keep, true).count();
+        // root、前一半的链和它们的 x、fan、一半的树叶、三分之二的 group 和它们的树叶
+        long expected = 1 + CHAIN / 2 + CHAIN / 2 + 1 + FAN_LEAVES / 2 + (FAN_GROUPS - 34) * 6;
+        assertEquals(expected, sequential);
+        assertEquals(sequential, parallel);
+        assertFalse(new TreeSpliterator<>(TreeAdapter.COMPONENT, (CompositePattern.Component) root, keep, true)
+                .hasCharacteristics(Spliterator.SIZED));
+    }
+}
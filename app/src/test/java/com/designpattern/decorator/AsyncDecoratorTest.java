@@ -0,0 +1,208 @@
+package com.designpattern.decorator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 异步装饰者：sequential 时附加功能在被装饰者之后执行，否则两者同时执行；任何一层失败时 future 以异常完成
+ */
+public class AsyncDecoratorTest {
+
+    private ExecutorService executor;
+    private List<String> events;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        events = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 等待 millis 后记录 name
+     */
+    private DecoratorPattern.AsyncComponent slowComponent(final String name, final long millis) {
+        return AsyncDecorator.wrap(new DecoratorPattern.Component() {
+            @Override
+            public void operation() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                events.add(name);
+            }
+        }, executor);
+    }
+
+    private AsyncDecorator recordingDecorator(DecoratorPattern.AsyncComponent component, final String name,
+                                              boolean sequential) {
+        return new AsyncDecorator(component, executor, sequential) {
+            @Override
+            public void addedFunction() {
+                events.add(name);
+            }
+        };
+    }
+
+    private static DecoratorPattern.AsyncComponent failed(final Exception e) {
+        return new DecoratorPattern.AsyncComponent() {
+            @Override
+            public CompletableFuture<Void> operation() {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        };
+    }
+
+    @Test
+    public void sequentialChainRunsInnerToOuter() throws Exception {
+        DecoratorPattern.AsyncComponent chain = slowComponent("component", 50);
+        for (int i = 1; i <= 3; i++) {
+            chain = recordingDecorator(chain, "decorator" + i, true);
+        }
+        chain.operation().get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("component", "decorator1", "decorator2", "decorator3"), events);
+    }
+
+    /**
+     * 被装饰者和附加功能互相等待对方开始，不同时执行时会超时
+     */
+    @Test
+    public void concurrentAddedFunctionOverlapsComponent() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final AtomicBoolean overlapped = new AtomicBoolean(true);
+        DecoratorPattern.AsyncComponent component = AsyncDecorator.wrap(new DecoratorPattern.Component() {
+            @Override
+            public void operation() {
+                bothStarted.countDown();
+                await(bothStarted, overlapped);
+                events.add("component");
+            }
+        }, executor);
+        AsyncDecorator decorator = new AsyncDecorator(component, executor) {
+            @Override
+            public void addedFunction() {
+                bothStarted.countDown();
+                await(bothStarted, overlapped);
+                events.add("decorator");
+            }
+        };
+        decorator.operation().get(5, TimeUnit.SECONDS);
+        assertTrue(overlapped.get());
+        assertEquals(2, events.size());
+    }
+
+    private static void await(CountDownLatch latch, AtomicBoolean overlapped) {
+        try {
+            if (!latch.await(2, TimeUnit.SECONDS)) {
+                overlapped.set(false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            overlapped.set(false);
+        }
+    }
+
+    @Test
+    public void concurrentFutureWaitsForBoth() throws Exception {
+        AsyncDecorator decorator = recordingDecorator(slowComponent("component", 100), "decorator", false);
+        CompletableFuture<Void> future = decorator.operation();
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(events.contains("component"));
+        assertTrue(events.contains("decorator"));
+    }
+
+    @Test
+    public void componentFailureCompletesExceptionally() throws Exception {
+        IOException failure = new IOException("component failed");
+        for (boolean sequential : new boolean[]{true, false}) {
+            events.clear();
+            CompletableFuture<Void> future = recordingDecorator(failed(failure), "decorator", sequential).operation();
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("future should fail, sequential = " + sequential);
+            } catch (ExecutionException e) {
+                assertSame(failure, unwrap(e.getCause()));
+            }
+            if (sequential) {
+                // 被装饰者失败后不再执行附加功能
+                assertTrue(events.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void addedFunctionFailureCompletesExceptionally() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("decorator failed");
+        for (boolean sequential : new boolean[]{true, false}) {
+            AsyncDecorator decorator = new AsyncDecorator(slowComponent("component", 0), executor, sequential) {
+                @Override
+                public void addedFunction() {
+                    throw failure;
+                }
+            };
+            try {
+                decorator.operation().get(5, TimeUnit.SECONDS);
+                fail("future should fail, sequential = " + sequential);
+            } catch (ExecutionException e) {
+                assertSame(failure, unwrap(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void synchronousThrowBecomesFailedFuture() throws Exception {
+        final IllegalArgumentException failure = new IllegalArgumentException("thrown before returning a future");
+        DecoratorPattern.AsyncComponent throwing = new DecoratorPattern.AsyncComponent() {
+            @Override
+            public CompletableFuture<Void> operation() {
+                throw failure;
+            }
+        };
+        CompletableFuture<Void> future = recordingDecorator(throwing, "decorator", true).operation();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("future should fail");
+        } catch (ExecutionException e) {
+            assertSame(failure, unwrap(e.getCause()));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void executorIsRequired() {
+        new AsyncDecorator(slowComponent("component", 0), null);
+    }
+
+    /**
+     * 依赖的 future 失败时，后续阶段的异常包在 CompletionException 里
+     */
+    private static Throwable unwrap(Throwable throwable) {
+        while (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+}
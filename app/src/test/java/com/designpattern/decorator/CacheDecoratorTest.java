@@ -0,0 +1,306 @@
+package com.designpattern.decorator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缓存装饰者：同时未命中只计算一次、计算期间失效的结果不缓存、LRU 上限、写入后和访问后过期、异常不缓存
+ */
+public class CacheDecoratorTest {
+
+    /**
+     * 手动前进的时钟
+     */
+    private static class FakeTicker implements CacheDecorator.Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    /**
+     * 返回 "value" + key，记录计算次数
+     */
+    private static class CountingOperation implements DecoratorPattern.Operation<Integer, String> {
+        final AtomicInteger computations = new AtomicInteger();
+
+        @Override
+        public String operation(Integer key) throws Exception {
+            computations.incrementAndGet();
+            return "value" + key;
+        }
+    }
+
+    @Test
+    public void concurrentMissesComputeOnce() throws Exception {
+        final int threads = 8;
+        final AtomicInteger computations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .build(new DecoratorPattern.Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        computations.incrementAndGet();
+                        release.await();
+                        return "value" + key;
+                    }
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return cache.operation(1);
+                    }
+                }));
+            }
+            // 所有线程都未命中之后才让计算完成
+            while (cache.stats().missCount < threads) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value1", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, computations.get());
+        assertEquals(1, cache.stats().loadSuccessCount);
+        assertEquals("value1", cache.operation(1));
+        assertEquals(1, computations.get());
+        assertEquals(1, cache.stats().hitCount);
+    }
+
+    /**
+     * A 未命中开始计算，B 在计算期间 invalidate：A 的旧结果不放进缓存，之后的调用也不再等待 A 的计算
+     */
+    @Test
+    public void invalidateDuringLoadDiscardsTheOldValue() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        final Semaphore started = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .build(new DecoratorPattern.Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        int version = computations.incrementAndGet();
+                        started.release();
+                        release.await();
+                        return "value" + key + "#" + version;
+                    }
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<String> load = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return cache.operation(1);
+                }
+            };
+            Future<String> first = executor.submit(load);
+            assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+            cache.invalidate(1);
+            // 失效之后的未命中重新计算，不和 A 共用
+            Future<String> second = executor.submit(load);
+            assertTrue("the miss after invalidate should start its own load",
+                    started.tryAcquire(5, TimeUnit.SECONDS));
+            release.countDown();
+            assertEquals("value1#1", first.get(5, TimeUnit.SECONDS));
+            assertEquals("value1#2", second.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertEquals(1, cache.size());
+        assertEquals("value1#2", cache.operation(1));
+        assertEquals(2, computations.get());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals("value1#3", cache.operation(1));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        CountingOperation operation = new CountingOperation();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder().maximumSize(2).build(operation);
+        cache.operation(1);
+        cache.operation(2);
+        // 访问 1 之后 2 是最久没有访问的
+        cache.operation(1);
+        cache.operation(3);
+        assertEquals(2, cache.size());
+        assertEquals(3, operation.computations.get());
+
+        cache.operation(1);
+        cache.operation(3);
+        assertEquals(3, operation.computations.get());
+        cache.operation(2);
+        assertEquals(4, operation.computations.get());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.stats().evictionCount);
+    }
+
+    @Test
+    public void entriesExpireAfterWrite() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        CountingOperation operation = new CountingOperation();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .expireAfterWrite(100, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build(operation);
+        cache.operation(1);
+        ticker.advance(60);
+        cache.operation(1);
+        // 访问不会推迟写入后过期
+        ticker.advance(39);
+        cache.operation(1);
+        assertEquals(1, operation.computations.get());
+        ticker.advance(1);
+        assertEquals("value1", cache.operation(1));
+        assertEquals(2, operation.computations.get());
+    }
+
+    @Test
+    public void entriesExpireAfterAccess() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        CountingOperation operation = new CountingOperation();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .expireAfterAccess(100, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build(operation);
+        cache.operation(1);
+        for (int i = 0; i < 5; i++) {
+            ticker.advance(60);
+            cache.operation(1);
+        }
+        assertEquals(1, operation.computations.get());
+        ticker.advance(100);
+        cache.operation(1);
+        assertEquals(2, operation.computations.get());
+    }
+
+    @Test
+    public void cleanUpRemovesExpiredEntries() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .expireAfterWrite(100, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build(new CountingOperation());
+        cache.operation(1);
+        ticker.advance(50);
+        cache.operation(2);
+        ticker.advance(50);
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void exceptionIsNotCached() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .build(new DecoratorPattern.Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        if (computations.incrementAndGet() == 1) {
+                            throw new IOException("first call fails");
+                        }
+                        return "value" + key;
+                    }
+                });
+        try {
+            cache.operation(1);
+            fail("the operation's exception should be thrown");
+        } catch (IOException expected) {
+            assertEquals("first call fails", expected.getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertEquals("value1", cache.operation(1));
+        assertEquals(2, computations.get());
+        assertEquals(1, cache.stats().loadFailureCount);
+        assertEquals(1, cache.stats().loadSuccessCount);
+    }
+
+    @Test
+    public void waitersReceiveTheSameException() throws Exception {
+        final int threads = 4;
+        final AtomicInteger computations = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .build(new DecoratorPattern.Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        computations.incrementAndGet();
+                        release.await();
+                        throw new IOException("load failed");
+                    }
+                });
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return cache.operation(1);
+                    }
+                }));
+            }
+            while (cache.stats().missCount < threads) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("every waiter should see the failure");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, computations.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void nullIsNotCached() throws Exception {
+        final AtomicInteger computations = new AtomicInteger();
+        CacheDecorator<Integer, String> cache = CacheDecorator.newBuilder()
+                .build(new DecoratorPattern.Operation<Integer, String>() {
+                    @Override
+                    public String operation(Integer key) throws Exception {
+                        computations.incrementAndGet();
+                        return null;
+                    }
+                });
+        assertNull(cache.operation(1));
+        assertNull(cache.operation(1));
+        assertEquals(2, computations.get());
+    }
+}
@@ -0,0 +1,122 @@
+package com.designpattern.flyweight;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 享元的批量处理：只处理 [offset, offset + count) 的外部状态，越界的区间在处理之前被拒绝
+ */
+public class FlyweightBatchTest {
+
+    private FlyweightPattern pattern;
+    private FlyweightPattern.Flyweight batch;
+    private FlyweightPattern.Flyweight defaultLoop;
+
+    @Before
+    public void setUp() {
+        pattern = new FlyweightPattern();
+        batch = pattern.new ConcreteFlyweightC(2f, 10f, 20f);
+        // 只实现 share，shareBatch 使用基类的默认循环
+        defaultLoop = pattern.new AbstractFlyweight() {
+            @Override
+            public void share(FlyweightPattern.UnsharableFlyweight unsharableFlyweight) {
+                unsharableFlyweight.resultX = unsharableFlyweight.x * 2f + 10f;
+                unsharableFlyweight.resultY = unsharableFlyweight.y * 2f + 20f;
+            }
+        };
+    }
+
+    private static float[] states(int count) {
+        float[] states = new float[count * FlyweightPattern.STRIDE];
+        for (int i = 0; i < count; i++) {
+            states[i * FlyweightPattern.STRIDE] = i;
+            states[i * FlyweightPattern.STRIDE + 1] = -i;
+        }
+        return states;
+    }
+
+    @Test
+    public void batchMatchesShare() {
+        for (FlyweightPattern.Flyweight flyweight : new FlyweightPattern.Flyweight[]{batch, defaultLoop}) {
+            float[] states = states(100);
+            float[] out = new float[states.length];
+            flyweight.shareBatch(states, 0, 100, out);
+            for (int i = 0; i < 100; i++) {
+                FlyweightPattern.UnsharableFlyweight single = pattern.new UnsharableFlyweight(i, -i);
+                batch.share(single);
+                assertEquals(single.resultX, out[i * FlyweightPattern.STRIDE], 0f);
+                assertEquals(single.resultY, out[i * FlyweightPattern.STRIDE + 1], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void onlyTheRangeIsWritten() {
+        for (FlyweightPattern.Flyweight flyweight : new FlyweightPattern.Flyweight[]{batch, defaultLoop}) {
+            float[] states = states(10);
+            float[] out = new float[states.length];
+            flyweight.shareBatch(states, 3, 4, out);
+            for (int i = 0; i < 10; i++) {
+                boolean inRange = i >= 3 && i < 7;
+                assertEquals(inRange ? i * 2f + 10f : 0f, out[i * FlyweightPattern.STRIDE], 0f);
+                assertEquals(inRange ? -i * 2f + 20f : 0f, out[i * FlyweightPattern.STRIDE + 1], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void outCanBeStates() {
+        float[] states = states(4);
+        batch.shareBatch(states, 0, 4, states);
+        assertEquals(3 * 2f + 10f, states[3 * FlyweightPattern.STRIDE], 0f);
+        assertEquals(-3 * 2f + 20f, states[3 * FlyweightPattern.STRIDE + 1], 0f);
+    }
+
+    @Test
+    public void emptyRangeAtEndIsAllowed() {
+        float[] states = states(4);
+        batch.shareBatch(states, 4, 0, states);
+        defaultLoop.shareBatch(states, 4, 0, states);
+    }
+
+    @Test
+    public void invalidRangesAreRejected() {
+        int[][] ranges = {
+                {-1, 1},
+                {0, -1},
+                {0, 5},
+                {4, 1},
+                {1, Integer.MAX_VALUE},
+                {Integer.MAX_VALUE, 1},
+                {Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2 + 2},
+        };
+        for (FlyweightPattern.Flyweight flyweight : new FlyweightPattern.Flyweight[]{batch, defaultLoop}) {
+            for (int[] range : ranges) {
+                float[] states = states(4);
+                try {
+                    flyweight.shareBatch(states, range[0], range[1], new float[states.length]);
+                    fail("offset=" + range[0] + ", count=" + range[1]);
+                } catch (ArrayIndexOutOfBoundsException expected) {
+                    // 越界的区间在处理之前被拒绝
+                }
+            }
+        }
+    }
+
+    @Test
+    public void outShorterThanRangeIsRejected() {
+        float[] states = states(4);
+        float[] out = new float[3 * FlyweightPattern.STRIDE];
+        try {
+            batch.shareBatch(states, 0, 4, out);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+            // out 装不下整个区间
+        }
+        for (float value : out) {
+            assertEquals(0f, value, 0f);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.designpattern.prototype;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 写时复制：克隆后共用 limb，任何一方修改时才复制，修改互不影响
+ */
+public class LazyCloneTest {
+
+    private LazyClone lazyClone;
+    private LazyClone.XiaoA xiaoA;
+
+    @Before
+    public void setUp() {
+        lazyClone = new LazyClone();
+        xiaoA = lazyClone.new XiaoA("xiaoA", 25, lazyClone.new Limb(2, "双手"));
+    }
+
+    @Test
+    public void cloneSharesLimbUntilWrite() throws Exception {
+        LazyClone.XiaoA xiaoB = xiaoA.clone();
+        assertTrue(xiaoA.isLimbSharedWith(xiaoB));
+        assertEquals(2, xiaoB.getLimbZise());
+        assertEquals("双手", xiaoB.getLimbName());
+    }
+
+    @Test
+    public void writeToCloneDoesNotAffectOriginal() throws Exception {
+        LazyClone.XiaoA xiaoB = xiaoA.clone();
+        xiaoB.setLimbZise(10);
+        xiaoB.setLimbName("一双麒麟臂");
+        assertFalse(xiaoA.isLimbSharedWith(xiaoB));
+        assertEquals(2, xiaoA.getLimbZise());
+        assertEquals("双手", xiaoA.getLimbName());
+        assertEquals(10, xiaoB.getLimbZise());
+        assertEquals("一双麒麟臂", xiaoB.getLimbName());
+    }
+
+    @Test
+    public void writeToOriginalDoesNotAffectClone() throws Exception {
+        LazyClone.XiaoA xiaoB = xiaoA.clone();
+        xiaoA.setLimbZise(4);
+        assertFalse(xiaoA.isLimbSharedWith(xiaoB));
+        assertEquals(4, xiaoA.getLimbZise());
+        assertEquals(2, xiaoB.getLimbZise());
+    }
+
+    @Test
+    public void writeByOneCloneKeepsOthersShared() throws Exception {
+        LazyClone.XiaoA xiaoB = xiaoA.clone();
+        LazyClone.XiaoA xiaoC = xiaoA.clone();
+        xiaoB.setLimbZise(10);
+        assertTrue(xiaoA.isLimbSharedWith(xiaoC));
+        assertEquals(2, xiaoA.getLimbZise());
+        assertEquals(2, xiaoC.getLimbZise());
+        xiaoC.setLimbZise(20);
+        assertEquals(2, xiaoA.getLimbZise());
+        assertEquals(10, xiaoB.getLimbZise());
+        assertEquals(20, xiaoC.getLimbZise());
+    }
+
+    @Test
+    public void cloneOfModifiedCloneIsIsolated() throws Exception {
+        LazyClone.XiaoA xiaoB = xiaoA.clone();
+        xiaoB.setLimbZise(10);
+        LazyClone.XiaoA xiaoC = xiaoB.clone();
+        xiaoB.setLimbName("双脚");
+        assertFalse(xiaoB.isLimbSharedWith(xiaoC));
+        assertEquals("双手", xiaoC.getLimbName());
+        assertEquals(10, xiaoC.getLimbZise());
+    }
+}
@@ -0,0 +1,103 @@
+package com.designpattern.decorator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 嵌套 1 到 32 层装饰者和 DecoratorPipeline 展开后的调用耗时对比。
+ * <p>
+ * 1。用四种不同的装饰者轮流嵌套，mComponent.operation() 的调用点是多态的，和实际使用时一样。
+ * 2。每个层数、每种调用方式在单独的 JVM 里运行（Fork），类型信息不会互相影响。
+ * 3。返回计数器，避免调用被 JIT 当作死代码消除。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoratorPipelineBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int depth;
+
+    private long counter;
+    private DecoratorPattern.Component nested;
+    private DecoratorPipeline fused;
+
+    @Setup
+    public void setUp() {
+        DecoratorPattern pattern = new DecoratorPattern();
+        DecoratorPattern.Component component = new DecoratorPattern.Component() {
+            @Override
+            public void operation() {
+                counter++;
+            }
+        };
+        for (int i = 0; i < depth; i++) {
+            component = newCountingDecorator(pattern, component, i % 4);
+        }
+        nested = component;
+        fused = DecoratorPipeline.fuse(component);
+        if (fused.depth() != depth) {
+            throw new IllegalStateException("fused " + fused.depth() + " of " + depth + " decorators");
+        }
+    }
+
+    @Benchmark
+    public long nested() {
+        nested.operation();
+        return counter;
+    }
+
+    @Benchmark
+    public long fused() {
+        fused.operation();
+        return counter;
+    }
+
+    private DecoratorPattern.ConcreteDecorator newCountingDecorator(DecoratorPattern pattern,
+                                                                    DecoratorPattern.Component component, int kind) {
+        switch (kind) {
+            case 0:
+                return pattern.new ConcreteDecorator(component) {
+                    @Override
+                    public void addedFunction() {
+                        counter += 1;
+                    }
+                };
+            case 1:
+                return pattern.new ConcreteDecorator(component) {
+                    @Override
+                    public void addedFunction() {
+                        counter += 2;
+                    }
+                };
+            case 2:
+                return pattern.new ConcreteDecorator(component) {
+                    @Override
+                    public void addedFunction() {
+                        counter += 3;
+                    }
+                };
+            default:
+                return pattern.new ConcreteDecorator(component) {
+                    @Override
+                    public void addedFunction() {
+                        counter += 4;
+                    }
+                };
+        }
+    }
+}